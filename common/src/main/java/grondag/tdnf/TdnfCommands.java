@@ -0,0 +1,71 @@
+/*
+ * This file is part of Trees Do Not Float and is licensed to the project under
+ * terms that are compatible with the GNU Lesser General Public License.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership and licensing.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package grondag.tdnf;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+
+import grondag.tdnf.world.JobMetrics;
+import grondag.tdnf.world.SearchBenchmark;
+
+public class TdnfCommands {
+	private TdnfCommands() { }
+
+	private static final int DEFAULT_ITERATIONS = 200;
+
+	public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
+		dispatcher.register(Commands.literal("tdnf")
+			.requires(source -> source.hasPermission(2))
+			.then(Commands.literal("benchmark")
+				.executes(context -> benchmark(context, DEFAULT_ITERATIONS))
+				.then(Commands.argument("iterations", IntegerArgumentType.integer(1, 10000))
+					.executes(context -> benchmark(context, IntegerArgumentType.getInteger(context, "iterations")))))
+			.then(Commands.literal("stats")
+				.executes(TdnfCommands::stats)
+				.then(Commands.literal("reset")
+					.executes(TdnfCommands::resetStats))));
+	}
+
+	private static int stats(CommandContext<CommandSourceStack> context) {
+		final CommandSourceStack source = context.getSource();
+		JobMetrics.report(line -> source.sendSuccess(Component.literal(line), false));
+		return 1;
+	}
+
+	private static int resetStats(CommandContext<CommandSourceStack> context) {
+		JobMetrics.reset();
+		context.getSource().sendSuccess(Component.literal("Tree metrics reset."), false);
+		return 1;
+	}
+
+	private static int benchmark(CommandContext<CommandSourceStack> context, int iterations) {
+		final CommandSourceStack source = context.getSource();
+		source.sendSuccess(Component.literal("Running tree search benchmark with " + iterations + " iterations per shape..."), false);
+		SearchBenchmark.run(source.getLevel(), iterations, line -> source.sendSuccess(Component.literal(line), false));
+		return 1;
+	}
+}
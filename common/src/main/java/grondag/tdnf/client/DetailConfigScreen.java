@@ -112,8 +112,8 @@ public class DetailConfigScreen extends ConfigScreen {
 
 		i += lineHeight;
 
-		nonPlayerLogLimit = addRenderableWidget(new Slider(leftOffset, i, controlWidth, controlHeight, "non_player_log_limit", 0, 4096, config.nonPlayerLogLimit));
-		playerBaseLogLimit = addRenderableWidget(new Slider(middleOffset, i, controlWidth, controlHeight, "player_base_log_limit", 0, 4096, config.playerBaseLogLimit));
+		nonPlayerLogLimit = addRenderableWidget(new Slider(leftOffset, i, controlWidth, controlHeight, "non_player_log_limit", 0, 16384, config.nonPlayerLogLimit));
+		playerBaseLogLimit = addRenderableWidget(new Slider(middleOffset, i, controlWidth, controlHeight, "player_base_log_limit", 0, 16384, config.playerBaseLogLimit));
 		toolTierLogBonus = addRenderableWidget(new Slider(rightOffset, i, controlWidth, controlHeight, "tool_tier_log_bonus", 0, 256, config.toolTierLogBonus));
 
 		i += lineHeight;
@@ -27,6 +27,7 @@ import net.minecraft.client.gui.screens.Screen;
 import net.minecraft.network.chat.Component;
 
 import grondag.tdnf.config.ConfigData;
+import grondag.tdnf.world.BreakRateController;
 
 public class PerformanceConfigScreen extends ConfigScreen {
 	protected Slider maxJobsPerWorld;
@@ -34,8 +35,11 @@ public class PerformanceConfigScreen extends ConfigScreen {
 	protected Slider maxBreaksPerSecond;
 
 	protected Slider tickBudget;
+	protected Slider targetMspt;
 	protected Slider maxFallingBlocks;
 	protected Slider jobTimeoutSeconds;
+	protected Toggle asyncSearch;
+	protected int rateTop;
 
 	public PerformanceConfigScreen(Screen parent, ConfigData config) {
 		super(parent, config);
@@ -49,6 +53,12 @@ public class PerformanceConfigScreen extends ConfigScreen {
 			l.render(matrixStack);
 		}
 
+		// controller only runs on the server, so only known when it's in this process
+		if (minecraft.hasSingleplayerServer()) {
+			final Component rate = Component.translatable("config.tdnf.value.current_rate", BreakRateController.breaksPerSecond(), BreakRateController.maxJobsPerWorld(), String.format("%.1f", BreakRateController.mspt()));
+			drawCenteredString(matrixStack, font, rate, width / 2, rateTop, 16777215);
+		}
+
 		super.render(matrixStack, i, j, f);
 	}
 
@@ -72,12 +82,21 @@ public class PerformanceConfigScreen extends ConfigScreen {
 		tickBudget = addRenderableWidget(new Slider(sliderLeft, i, sliderWidth, controlHeight, "tick_budget", 1, 5, config.tickBudget));
 		i += lineHeight;
 
+		targetMspt = addRenderableWidget(new Slider(sliderLeft, i, sliderWidth, controlHeight, "target_mspt", 0, 100, config.targetMspt));
+		i += lineHeight;
+
+		rateTop = i + (controlHeight - font.lineHeight) / 2;
+		i += lineHeight;
+
 		maxFallingBlocks = addRenderableWidget(new Slider(sliderLeft, i, sliderWidth, controlHeight, "max_falling_blocks", 1, 64, config.maxFallingBlocks));
 		i += lineHeight;
 
 		jobTimeoutSeconds = addRenderableWidget(new Slider(sliderLeft, i, sliderWidth, controlHeight, "job_timeout_seconds", 0, 4096, config.jobTimeoutSeconds));
 		i += lineHeight;
 
+		asyncSearch = addRenderableWidget(new Toggle(sliderLeft, i, sliderWidth, controlHeight, "async_search", config.asyncSearch));
+		i += lineHeight;
+
 		addRenderableWidget(Button.builder(Component.translatable("config.tdnf.value.presets"), (buttonWidget) -> {
 			saveValues();
 			minecraft.setScreen(new PresetConfigScreen(parent, config));
@@ -95,7 +114,9 @@ public class PerformanceConfigScreen extends ConfigScreen {
 		config.effectsPerSecond = effectsPerSecond.getValue();
 		config.maxBreaksPerSecond = maxBreaksPerSecond.getValue();
 		config.tickBudget = tickBudget.getValue();
+		config.targetMspt = targetMspt.getValue();
 		config.maxFallingBlocks = maxFallingBlocks.getValue();
 		config.jobTimeoutSeconds = jobTimeoutSeconds.getValue();
+		config.asyncSearch = asyncSearch.selected();
 	}
 }
@@ -78,10 +78,10 @@ public class ConfigData {
 	@Comment("Players gain hunger from leaves in addition to logs.")
 	public boolean leafHunger = false;
 
-	@Comment("Max logs that can be broken by non-player mechanics like pistons, fire and TNT.")
+	@Comment("Max logs that can be broken by non-player mechanics like pistons, fire and TNT. 0 - 16384")
 	public int nonPlayerLogLimit = 256;
 
-	@Comment("Logs that can be broken by a player without using a tool.")
+	@Comment("Logs that can be broken by a player without using a tool. 0 - 16384")
 	public int playerBaseLogLimit = 256;
 
 	@Comment("Additional logs that can be broken when player uses a tool, per tier of tool. Set zero to disable.")
@@ -107,15 +107,39 @@ public class ConfigData {
 	@Comment("Max log/leaf blocks to break per second, per tree. 1 - 2560")
 	public int maxBreaksPerSecond = 640;
 
-	@Comment("Max percentage of each server tick that can be used by TDNF in each world. 1 - 5")
+	@Comment("Max time in each server tick that can be used by TDNF, in steps of 10ms, shared by all worlds. 1 - 5")
 	public int tickBudget = 1;
 
+	@Comment("Break rate and job count are reduced while server tick time is above this many milliseconds. 0 disables, which is the default. Servers that normally run slower than the target are slowed further. 0 - 100")
+	public int targetMspt = 0;
+
 	@Comment("Max number of active falling block entities. 1 - 64")
 	public int maxFallingBlocks = 16;
 
 	@Comment("Tree cutting jobs will be abandoned if they take longer than this number of seconds. Use larger values if breaking speed is slow. 20-1800")
 	public int jobTimeoutSeconds = 360;
 
+	@Comment("Search tree structure on a background thread. Blocks are still broken on the server thread.")
+	public boolean asyncSearch = false;
+
+	@Comment("Remove blocks without notifying neighbors one at a time, then update only the blocks left around the tree.")
+	public boolean batchBlockUpdates = true;
+
+	@Comment("Start breaking logs while leaves are still being found. Only when a log break or tool use starts the job, logs are not kept intact, leaves don't use durability and search is not async. Needs batchBlockUpdates.")
+	public boolean streamClearing = true;
+
+	@Comment("Record the logs and bounds of trees placed during world generation, so leaf search for them stays inside the tree. Uses some memory and save space per tree.")
+	public boolean indexGeneratedTrees = false;
+
+	@Comment("Max number of grown trees, and separately of generated trees, recorded per world. Oldest records are dropped to make room. 0 disables recording. 0 - 262144")
+	public int maxRecordedTrees = 16384;
+
+	@Comment("Collect timing and job statistics, shown by /tdnf stats. Adds a small amount of overhead.")
+	public boolean enableMetrics = false;
+
+	@Comment("When metrics are enabled, write them to the log at this interval in seconds. 0 disables. 0 - 3600")
+	public int metricsLogSeconds = 0;
+
 	@Comment("IDs of modded blocks to be handled the same as Minecraft big mushrooms. Not strictly needed if the block is in the LOGS tag or is a subtype of MushroomBlock.")
 	public String[] moddedMushroomBlocks = {
 		"byg:weeping_milkcap_mushroom_block",
@@ -36,6 +36,8 @@ import net.minecraft.world.level.material.Material;
 
 import grondag.tdnf.Platform;
 import grondag.tdnf.TreesDoNotFloat;
+import grondag.tdnf.world.BlockClassifier;
+import grondag.tdnf.world.SupportCache;
 
 public class Configurator {
 	public enum FallCondition {
@@ -101,9 +103,17 @@ public class Configurator {
 	public static int maxJobsPerWorld = DEFAULTS.maxJobsPerWorld;
 	public static int maxBreaksPerSecond = DEFAULTS.maxBreaksPerSecond;
 	public static int tickBudget = DEFAULTS.tickBudget;
+	public static int targetMspt = DEFAULTS.targetMspt;
 	public static int maxFallingBlocks = DEFAULTS.maxFallingBlocks;
 	public static int jobTimeoutSeconds = DEFAULTS.jobTimeoutSeconds;
 	public static int jobTimeoutTicks = jobTimeoutSeconds * 20;
+	public static boolean asyncSearch = DEFAULTS.asyncSearch;
+	public static boolean batchBlockUpdates = DEFAULTS.batchBlockUpdates;
+	public static boolean streamClearing = DEFAULTS.streamClearing;
+	public static boolean indexGeneratedTrees = DEFAULTS.indexGeneratedTrees;
+	public static int maxRecordedTrees = DEFAULTS.maxRecordedTrees;
+	public static boolean enableMetrics = DEFAULTS.enableMetrics;
+	public static int metricsLogSeconds = DEFAULTS.metricsLogSeconds;
 
 	public static boolean hasBreaking = fallingLogsBreakPlants || fallingLogsBreakFragile;
 
@@ -147,8 +157,8 @@ public class Configurator {
 
 		applyHunger = config.applyHunger;
 		leafHunger = config.leafHunger;
-		nonPlayerLogLimit = Mth.clamp(config.nonPlayerLogLimit, 0, 256);
-		playerBaseLogLimit = Mth.clamp(config.playerBaseLogLimit, 0, 256);
+		nonPlayerLogLimit = Mth.clamp(config.nonPlayerLogLimit, 0, 16384);
+		playerBaseLogLimit = Mth.clamp(config.playerBaseLogLimit, 0, 16384);
 		toolTierLogBonus = Mth.clamp(config.toolTierLogBonus, 0, 64);
 		enableEfficiencyLogMultiplier = config.enableEfficiencyLogMultiplier;
 
@@ -158,8 +168,16 @@ public class Configurator {
 		effectsPerSecond = Mth.clamp(config.effectsPerSecond, 0, 20);
 		maxBreaksPerSecond = Mth.clamp(config.maxBreaksPerSecond, 1, 2560);
 		tickBudget = Mth.clamp(config.tickBudget, 1, 5);
+		targetMspt = Mth.clamp(config.targetMspt, 0, 100);
 		maxFallingBlocks = Mth.clamp(config.maxFallingBlocks, 1, 64);
 		jobTimeoutSeconds = Mth.clamp(config.jobTimeoutSeconds, 20, 1800);
+		asyncSearch = config.asyncSearch;
+		batchBlockUpdates = config.batchBlockUpdates;
+		streamClearing = config.streamClearing;
+		indexGeneratedTrees = config.indexGeneratedTrees;
+		maxRecordedTrees = Mth.clamp(config.maxRecordedTrees, 0, 262144);
+		enableMetrics = config.enableMetrics;
+		metricsLogSeconds = Mth.clamp(config.metricsLogSeconds, 0, 3600);
 		computeDerived();
 	}
 
@@ -207,6 +225,8 @@ public class Configurator {
 		}
 
 		jobTimeoutTicks = jobTimeoutSeconds * 20;
+		BlockClassifier.invalidate();
+		SupportCache.invalidateAll();
 	}
 
 	public static ConfigData writeConfig() {
@@ -242,8 +262,16 @@ public class Configurator {
 		config.effectsPerSecond = effectsPerSecond;
 		config.maxBreaksPerSecond = maxBreaksPerSecond;
 		config.tickBudget = tickBudget;
+		config.targetMspt = targetMspt;
 		config.maxFallingBlocks = maxFallingBlocks;
 		config.jobTimeoutSeconds = jobTimeoutSeconds;
+		config.asyncSearch = asyncSearch;
+		config.batchBlockUpdates = batchBlockUpdates;
+		config.streamClearing = streamClearing;
+		config.indexGeneratedTrees = indexGeneratedTrees;
+		config.maxRecordedTrees = maxRecordedTrees;
+		config.enableMetrics = enableMetrics;
+		config.metricsLogSeconds = metricsLogSeconds;
 
 		//        config.minimumSupportSurface = logSupportSurface;
 		return config;
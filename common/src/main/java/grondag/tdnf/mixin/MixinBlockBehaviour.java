@@ -21,77 +21,58 @@
 package grondag.tdnf.mixin;
 
 import org.spongepowered.asm.mixin.Mixin;
-import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 import net.minecraft.core.BlockPos;
-import net.minecraft.core.Direction;
 import net.minecraft.server.level.ServerLevel;
-import net.minecraft.tags.BlockTags;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.Block;
-import net.minecraft.world.level.block.Blocks;
-import net.minecraft.world.level.block.HugeMushroomBlock;
 import net.minecraft.world.level.block.state.BlockBehaviour;
 import net.minecraft.world.level.block.state.BlockState;
-import net.minecraft.world.level.material.Material;
-import net.minecraft.world.phys.shapes.CollisionContext;
 
-import grondag.tdnf.Platform;
 import grondag.tdnf.PlayerBreakHandler;
 import grondag.tdnf.config.Configurator;
 import grondag.tdnf.config.Configurator.FallCondition;
+import grondag.tdnf.world.BlockClassifier;
 import grondag.tdnf.world.Dispatcher;
 import grondag.tdnf.world.TreeBlock;
+import grondag.tdnf.world.TreeBlockState;
 
 @Mixin(BlockBehaviour.class)
 public abstract class MixinBlockBehaviour implements TreeBlock {
-	private int blockType = UNKNOWN;
-
-	@Shadow protected Material material;
+	/** Type in low bits and classifier version it was computed for above them. */
+	private int blockType = 0;
 
 	@Override
 	public int treeBlockType() {
-		int result = blockType;
-
-		if (result == UNKNOWN) {
-			final Block self = (Block) (Object) this;
-			final String myName = Platform.getBlockName(self);
-
-			if (self.builtInRegistryHolder().is(BlockTags.LOGS) && (material == Material.WOOD || material == Material.NETHER_WOOD)) {
-				if (self == Blocks.CRIMSON_STEM || self == Blocks.WARPED_STEM || Configurator.moddedFungusLogs.contains(myName)) {
-					result = FUNGUS_LOG;
-				} else {
-					result = LOG;
-				}
-			} else if (HugeMushroomBlock.class.isInstance(self) || Configurator.moddedMushroomBlocks.contains(myName)) {
-				result = FUNGUS_LOG;
-			} else if (self == Blocks.NETHER_WART_BLOCK || self == Blocks.WARPED_WART_BLOCK || self == Blocks.SHROOMLIGHT
-					|| Configurator.moddedFungusLeaves.contains(myName)) {
-				result = FUNGUS_LEAF;
-			} else {
-				result = OTHER;
-			}
+		final int packed = blockType;
+		final int version = BlockClassifier.version();
 
-			blockType = result;
+		if ((packed >>> BlockClassifier.VERSION_SHIFT) == version) {
+			return packed & BlockClassifier.VALUE_MASK;
 		}
 
+		final int result = BlockClassifier.classify((Block) (Object) this);
+		blockType = (version << BlockClassifier.VERSION_SHIFT) | result;
 		return result;
 	}
 
+	// checks ordered cheapest and most selective first - these run for every block on the server
+
 	@Inject(at = @At("HEAD"), method = "neighborChanged")
 	private void hookNeighborChanged(BlockState blockState, Level level, BlockPos blockPos, Block otherBlock, BlockPos otherPos, boolean notify, CallbackInfo ci) {
-		if (!level.isClientSide
-			&& PlayerBreakHandler.shouldCheckBreakEvents()
-			&& isLog() && Configurator.fallCondition == FallCondition.NO_SUPPORT
+		if (TreeBlockState.isLog(blockState)
 			&& otherPos.getY() == blockPos.getY() - 1
+			&& Configurator.fallCondition == FallCondition.NO_SUPPORT
+			&& !level.isClientSide
+			&& PlayerBreakHandler.shouldCheckBreakEvents()
 		) {
 			//			System.out.println("neighborUpdate notify = " + notify);
 			final BlockState otherState = level.getBlockState(otherPos);
 
-			if (!Block.isFaceFull(otherState.getCollisionShape(level, otherPos, CollisionContext.empty()), Direction.UP)) {
+			if (!TreeBlockState.hasFullTop(otherState, level, otherPos)) {
 				Dispatcher.enqueBreak((ServerLevel) level, otherPos, null);
 			}
 		}
@@ -99,14 +80,17 @@ public abstract class MixinBlockBehaviour implements TreeBlock {
 
 	@Inject(at = @At("HEAD"), method = "onRemove")
 	private void hookOnRemove(BlockState oldState, Level level, BlockPos blockPos, BlockState newState, boolean notify, CallbackInfo ci) {
-		if (isLog() && oldState.getBlock() != newState.getBlock()
-			&& !level.isClientSide
-			&& PlayerBreakHandler.shouldCheckBreakEvents()
-			&& Configurator.fallCondition != FallCondition.USE_TOOL
-			&& !Block.isFaceFull(newState.getCollisionShape(level, blockPos, CollisionContext.empty()), Direction.UP)
-		) {
-			//			System.out.println("onBlockRemoved notify = " + notify);
-			Dispatcher.enqueBreak((ServerLevel) level, blockPos, null);
+		if (TreeBlockState.isLog(oldState) && oldState.getBlock() != newState.getBlock() && !level.isClientSide) {
+			// may have been on the path to a support found earlier
+			Dispatcher.logRemoved((ServerLevel) level, blockPos);
+
+			if (Configurator.fallCondition != FallCondition.USE_TOOL
+				&& PlayerBreakHandler.shouldCheckBreakEvents()
+				&& !TreeBlockState.hasFullTop(newState, level, blockPos)
+			) {
+				//			System.out.println("onBlockRemoved notify = " + notify);
+				Dispatcher.enqueBreak((ServerLevel) level, blockPos, null);
+			}
 		}
 	}
 }
@@ -23,26 +23,55 @@ package grondag.tdnf.mixin;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
+import net.minecraft.world.level.Level;
 import net.minecraft.world.level.LevelAccessor;
 import net.minecraft.world.level.block.state.BlockBehaviour.BlockStateBase;
 import net.minecraft.world.level.block.state.BlockState;
 
+import grondag.tdnf.world.BlockClassifier;
 import grondag.tdnf.world.Dispatcher;
+import grondag.tdnf.world.TreeBlockState;
+import grondag.tdnf.world.TreeRegistry;
 
 @Mixin(BlockStateBase.class)
-public class MixinBlockStateBase {
+public class MixinBlockStateBase implements TreeBlockState {
+	/** Flags in low bits and version they were computed for above them. */
+	private int treeStateFlags = 0;
+
+	@Override
+	public int treeStateFlags() {
+		final int packed = treeStateFlags;
+		final int version = BlockClassifier.version();
+
+		if ((packed >>> BlockClassifier.VERSION_SHIFT) == version) {
+			return packed & BlockClassifier.VALUE_MASK;
+		}
+
+		final int flags = TreeBlockState.computeFlags((BlockState) (Object) this);
+		treeStateFlags = (version << BlockClassifier.VERSION_SHIFT) | flags;
+		return flags;
+	}
+
 	@Inject(at = @At("HEAD"), method = "updateShape", cancellable = true)
 	private void hookUpdateShape(Direction face, BlockState otherState, LevelAccessor levelAccessor, BlockPos myPos, BlockPos otherPos, CallbackInfoReturnable<BlockState> ci) {
 		if (!levelAccessor.isClientSide()) {
 			final BlockState me = (BlockState) (Object) this;
 
-			if (!me.isAir() && Dispatcher.isDoomed(myPos)) {
+			if (!me.isAir() && Dispatcher.isDoomed(levelAccessor, myPos)) {
 				ci.setReturnValue(me);
 			}
 		}
 	}
+
+	@Inject(at = @At("HEAD"), method = "onPlace")
+	private void hookOnPlace(Level level, BlockPos pos, BlockState oldState, boolean movedByPiston, CallbackInfo ci) {
+		if (TreeRegistry.isCapturing()) {
+			TreeRegistry.capture(pos, (BlockState) (Object) this, oldState);
+		}
+	}
 }
@@ -20,25 +20,31 @@
 
 package grondag.tdnf.mixin;
 
-import com.google.common.base.Predicates;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.util.RandomSource;
 import net.minecraft.world.level.block.SaplingBlock;
+import net.minecraft.world.level.block.state.BlockState;
 
 import grondag.tdnf.world.Dispatcher;
+import grondag.tdnf.world.TreeRegistry;
 
 @Mixin(SaplingBlock.class)
 public class MixinSaplingBlock {
 	@Inject(at = @At("HEAD"), method = "advanceTree", expect = 1)
-	private void beforeAdvanceTree(CallbackInfo ci) {
-		Dispatcher.suspend(Predicates.alwaysFalse());
+	private void beforeAdvanceTree(ServerLevel level, BlockPos pos, BlockState state, RandomSource random, CallbackInfo ci) {
+		Dispatcher.suspend();
+		TreeRegistry.startCapture(pos);
 	}
 
 	@Inject(at = @At("RETURN"), method = "advanceTree", expect = 1)
-	private void afterAdvanceTree(CallbackInfo ci) {
+	private void afterAdvanceTree(ServerLevel level, BlockPos pos, BlockState state, RandomSource random, CallbackInfo ci) {
+		TreeRegistry.endCapture(level);
 		Dispatcher.resume();
 	}
 }
@@ -0,0 +1,102 @@
+/*
+ * This file is part of Trees Do Not Float and is licensed to the project under
+ * terms that are compatible with the GNU Lesser General Public License.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership and licensing.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package grondag.tdnf.world;
+
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.tags.BlockTags;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.HugeMushroomBlock;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.material.Material;
+
+import grondag.tdnf.Platform;
+import grondag.tdnf.TreesDoNotFloat;
+import grondag.tdnf.config.Configurator;
+
+/**
+ * Assigns {@link TreeBlock} types to blocks and derived flags to block states.
+ *
+ * <p>Results depend on block tags and config, so they are versioned. Anything
+ * computed for an older version is recomputed on next use. {@link #rebuild()}
+ * also classifies every registered block up front so that the cost isn't
+ * paid on hot paths during play. It runs when the server starts and after
+ * data packs reload.
+ */
+public class BlockClassifier {
+	private BlockClassifier() { }
+
+	/** Bits available for version after type or flags in packed mixin fields. */
+	public static final int VERSION_SHIFT = 12;
+	public static final int VALUE_MASK = (1 << VERSION_SHIFT) - 1;
+	private static final int VERSION_MASK = (1 << (32 - VERSION_SHIFT)) - 1;
+
+	private static int version = 1;
+
+	public static int version() {
+		return version;
+	}
+
+	/** Causes types and flags to be recomputed on next use. Safe to call before registries are populated. */
+	public static void invalidate() {
+		// zero is the initial field value and is never current
+		version = Math.max(1, (version + 1) & VERSION_MASK);
+	}
+
+	/** Invalidates and then classifies every registered block and state. */
+	public static void rebuild() {
+		invalidate();
+		final long start = System.nanoTime();
+		int count = 0;
+
+		for (final Block block : BuiltInRegistries.BLOCK) {
+			((TreeBlock) block).treeBlockType();
+
+			for (final BlockState state : block.getStateDefinition().getPossibleStates()) {
+				((TreeBlockState) state).treeStateFlags();
+				++count;
+			}
+		}
+
+		TreesDoNotFloat.LOG.debug("Classified " + count + " block states in " + (System.nanoTime() - start) / 1000000 + "ms");
+	}
+
+	public static int classify(Block block) {
+		final String name = Platform.getBlockName(block);
+		final Material material = block.defaultBlockState().getMaterial();
+
+		if (block.builtInRegistryHolder().is(BlockTags.LOGS) && (material == Material.WOOD || material == Material.NETHER_WOOD)) {
+			if (block == Blocks.CRIMSON_STEM || block == Blocks.WARPED_STEM || Configurator.moddedFungusLogs.contains(name)) {
+				return TreeBlock.FUNGUS_LOG;
+			} else {
+				return TreeBlock.LOG;
+			}
+		} else if (block instanceof HugeMushroomBlock || Configurator.moddedMushroomBlocks.contains(name)) {
+			return TreeBlock.FUNGUS_LOG;
+		} else if (block == Blocks.NETHER_WART_BLOCK || block == Blocks.WARPED_WART_BLOCK || block == Blocks.SHROOMLIGHT
+				|| Configurator.moddedFungusLeaves.contains(name)) {
+			return TreeBlock.FUNGUS_LEAF;
+		} else {
+			return TreeBlock.OTHER;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * This file is part of Trees Do Not Float and is licensed to the project under
+ * terms that are compatible with the GNU Lesser General Public License.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership and licensing.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package grondag.tdnf.world;
+
+import net.minecraft.server.MinecraftServer;
+
+import grondag.tdnf.config.Configurator;
+
+/**
+ * Scales break rate and job admission to keep server tick time under
+ * {@link Configurator#targetMspt}. Uses additive increase, multiplicative
+ * decrease on a smoothed measure of recent tick times. Configured limits
+ * are the upper bound and are used unchanged when the target is zero.
+ */
+public class BreakRateController {
+	private BreakRateController() { }
+
+	private static final float MIN_SCALE = 1f / 64f;
+	private static final float INCREASE_PER_TICK = 0.01f;
+	private static final float DECREASE_FACTOR = 0.5f;
+	private static final float SMOOTHING = 0.2f;
+
+	/** ticks to wait after a decrease so it has time to show in tick times. */
+	private static final int DECREASE_COOLDOWN_TICKS = 20;
+
+	private static float scale = 1f;
+	private static float smoothedMspt = 0f;
+	private static int cooldown = 0;
+	private static int breaksPerSecond = Configurator.maxBreaksPerSecond;
+	private static int maxJobsPerWorld = Configurator.maxJobsPerWorld;
+
+	/** Call once per server tick, before any jobs run. */
+	public static void update(MinecraftServer server) {
+		// most recently completed tick - current tick is still running
+		final long[] tickTimes = server.tickTimes;
+		final float lastMspt = tickTimes[Math.floorMod(server.getTickCount() - 1, tickTimes.length)] * 1.0E-6F;
+		smoothedMspt += (lastMspt - smoothedMspt) * SMOOTHING;
+
+		final int target = Configurator.targetMspt;
+
+		if (target == 0) {
+			scale = 1f;
+		} else if (cooldown > 0) {
+			--cooldown;
+		} else if (smoothedMspt > target) {
+			scale = Math.max(MIN_SCALE, scale * DECREASE_FACTOR);
+			cooldown = DECREASE_COOLDOWN_TICKS;
+		} else {
+			scale = Math.min(1f, scale + INCREASE_PER_TICK);
+		}
+
+		breaksPerSecond = Math.max(1, Math.round(Configurator.maxBreaksPerSecond * scale));
+		maxJobsPerWorld = Math.max(1, Math.round(Configurator.maxJobsPerWorld * scale));
+	}
+
+	/** Current per-job break rate. Same units as {@link Configurator#maxBreaksPerSecond}. */
+	public static int breaksPerSecond() {
+		return breaksPerSecond;
+	}
+
+	/** Current limit on running jobs in each world. */
+	public static int maxJobsPerWorld() {
+		return maxJobsPerWorld;
+	}
+
+	/** Smoothed recent tick time in milliseconds. */
+	public static float mspt() {
+		return smoothedMspt;
+	}
+}
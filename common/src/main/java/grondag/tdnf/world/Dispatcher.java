@@ -21,31 +21,79 @@
 package grondag.tdnf.world;
 
 import java.util.IdentityHashMap;
-import java.util.function.Predicate;
-
-import com.google.common.base.Predicates;
 
 import net.minecraft.core.BlockPos;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.LevelAccessor;
 
 public class Dispatcher {
 	private static boolean suspended = false;
 
-	private static Predicate<BlockPos> doomTest = Predicates.alwaysFalse();
-
 	private static final IdentityHashMap<ServerLevel, WorldJobs> worldJobs = new IdentityHashMap<>();
 
+	/** Last world looked up by {@link #isDoomed} - shape updates come in runs from the same world. Server thread only. */
+	private static ServerLevel lastDoomWorld = null;
+	private static DoomIndex lastDoomIndex = null;
+
+	private static int lastServerTick = Integer.MIN_VALUE;
+
+	/** Server-wide time left in the current tick. */
+	private static long remainingNanos;
+
+	/** Backlog of worlds not yet ticked in the current server tick. */
+	private static int remainingBacklog;
+
+	/**
+	 * Divides one server-wide tick budget among worlds in proportion to backlog.
+	 * Each world's share is taken from whatever time is still left, so time
+	 * not used by worlds ticked earlier is available to worlds ticked later.
+	 */
+	private static void startServerTick(MinecraftServer server) {
+		BreakRateController.update(server);
+		TreeRegistry.addStaged();
+		JobMetrics.tick();
+		remainingNanos = TickTimeLimiter.serverBudgetNanos();
+		int backlog = 0;
+
+		for (final WorldJobs jobs : worldJobs.values()) {
+			jobs.scheduledBacklog = jobs.backlog();
+			backlog += jobs.scheduledBacklog;
+		}
+
+		remainingBacklog = backlog;
+	}
+
 	public static void routeTick(ServerLevel world) {
 		if (world.isClientSide) {
 			return;
 		}
 
+		final int serverTick = world.getServer().getTickCount();
+
+		if (serverTick != lastServerTick) {
+			lastServerTick = serverTick;
+			startServerTick(world.getServer());
+		}
+
 		final WorldJobs jobs = worldJobs.get(world);
 
 		if (jobs != null) {
-			TickTimeLimiter.reset();
-			jobs.run(world);
+			// jobs can be added after the tick starts, so current backlog may exceed snapshot
+			final int backlog = jobs.backlog();
+			final int scheduled = jobs.scheduledBacklog;
+			jobs.scheduledBacklog = 0;
+
+			if (backlog > 0 && remainingNanos > 0) {
+				final int denominator = Math.max(remainingBacklog, backlog);
+				remainingBacklog = Math.max(0, remainingBacklog - scheduled);
+				TickTimeLimiter.reset(remainingNanos * backlog / denominator);
+				jobs.run(world);
+				remainingNanos = Math.max(0, remainingNanos - TickTimeLimiter.elapsedNanos());
+			} else {
+				remainingBacklog = Math.max(0, remainingBacklog - scheduled);
+			}
 		}
 
 		// make sure we aren't left in an odd state
@@ -68,21 +116,52 @@ public class Dispatcher {
 			return;
 		}
 
-		getOrCreateJobsForWorld(world).enqueueBreakAbove(pos.asLong(), player);
+		getOrCreateJobsForWorld(world).enqueueBreakAbove(world, pos.asLong(), player);
 	}
 
-	public static void suspend(Predicate<BlockPos> theDoomed) {
-		doomTest = theDoomed;
+	/** Stops new jobs from being queued, so that block changes made by the mod don't trigger more jobs. */
+	public static void suspend() {
 		suspended = true;
 	}
 
 	public static void resume() {
-		doomTest = Predicates.alwaysFalse();
 		suspended = false;
 	}
 
-	public static boolean isDoomed(BlockPos pos) {
-		return doomTest.test(pos);
+	/**
+	 * True if a running job in the given world will remove the block at the given position.
+	 * Always false for world generation regions and off the server thread, where no job runs.
+	 */
+	public static boolean isDoomed(LevelAccessor world, BlockPos pos) {
+		if (DoomIndex.isEmptyEverywhere() || !(world instanceof ServerLevel serverWorld) || !serverWorld.getServer().isSameThread()) {
+			return false;
+		}
+
+		DoomIndex index = lastDoomIndex;
+
+		if (serverWorld != lastDoomWorld) {
+			final WorldJobs jobs = worldJobs.get(serverWorld);
+			index = jobs == null ? null : jobs.doomIndex;
+			lastDoomWorld = serverWorld;
+			lastDoomIndex = index;
+		}
+
+		return index != null && index.contains(pos.asLong());
+	}
+
+	/** Call when a log is removed in a server world, for any reason. */
+	public static void logRemoved(ServerLevel world, BlockPos pos) {
+		final WorldJobs jobs = worldJobs.get(world);
+
+		if (jobs != null) {
+			jobs.supportCache.logRemoved(pos.asLong());
+			jobs.treeRegistry.logRemoved(pos.asLong());
+		}
+	}
+
+	/** Trees grown from saplings in the given world. */
+	public static TreeRegistry treeRegistry(ServerLevel world) {
+		return getOrCreateJobsForWorld(world).treeRegistry;
 	}
 
 	public static void protect(ServerLevel world, BlockPos pos) {
@@ -0,0 +1,99 @@
+/*
+ * This file is part of Trees Do Not Float and is licensed to the project under
+ * terms that are compatible with the GNU Lesser General Public License.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership and licensing.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package grondag.tdnf.world;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongSet;
+
+import net.minecraft.core.BlockPos;
+
+/**
+ * Positions in one world that running jobs are about to remove, shared by
+ * all jobs in the world. Shape updates for these positions are suppressed
+ * because the result would be thrown away.
+ *
+ * <p>Lookups are on the path of every server shape update, so a small
+ * table of per-chunk counts is checked first. Most lookups are for chunks
+ * with no doomed blocks and exit there without hashing the position.
+ * Positions are reference counted in case jobs overlap.
+ *
+ * <p>Server thread only.
+ */
+public class DoomIndex {
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+	/** Doomed positions in all worlds - lets lookups exit immediately when nothing is happening. */
+	private static int globalCount = 0;
+
+	private final Long2IntOpenHashMap positions = new Long2IntOpenHashMap();
+	private final int[] chunkCounts = new int[1 << CHUNK_BITS];
+
+	private static int chunkSlot(long packedPos) {
+		final int h = (BlockPos.getX(packedPos) >> 4) * 0x9E3779B1 ^ (BlockPos.getZ(packedPos) >> 4) * 0x85EBCA6B;
+		return (h ^ (h >>> 16)) & CHUNK_MASK;
+	}
+
+	static boolean isEmptyEverywhere() {
+		return globalCount == 0;
+	}
+
+	public boolean contains(long packedPos) {
+		return chunkCounts[chunkSlot(packedPos)] != 0 && positions.containsKey(packedPos);
+	}
+
+	public void add(long packedPos) {
+		if (positions.addTo(packedPos, 1) == 0) {
+			++chunkCounts[chunkSlot(packedPos)];
+			++globalCount;
+		}
+	}
+
+	public void remove(long packedPos) {
+		final int count = positions.get(packedPos);
+
+		if (count == 1) {
+			positions.remove(packedPos);
+			--chunkCounts[chunkSlot(packedPos)];
+			--globalCount;
+		} else if (count > 1) {
+			positions.put(packedPos, count - 1);
+		}
+	}
+
+	public void addAll(LongSet packedPositions) {
+		final LongIterator it = packedPositions.iterator();
+
+		while (it.hasNext()) {
+			add(it.nextLong());
+		}
+	}
+
+	public void removeAll(LongSet packedPositions) {
+		final LongIterator it = packedPositions.iterator();
+
+		while (it.hasNext()) {
+			remove(it.nextLong());
+		}
+	}
+}
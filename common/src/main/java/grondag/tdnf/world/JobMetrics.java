@@ -0,0 +1,191 @@
+/*
+ * This file is part of Trees Do Not Float and is licensed to the project under
+ * terms that are compatible with the GNU Lesser General Public License.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership and licensing.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package grondag.tdnf.world;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import grondag.tdnf.TreesDoNotFloat;
+import grondag.tdnf.config.Configurator;
+
+/**
+ * Counters and latency histograms for tree jobs, collected only when
+ * {@link Configurator#enableMetrics} is true. Latencies are kept in
+ * power-of-two nanosecond buckets so recording is a couple of array
+ * increments. Server thread only.
+ */
+public class JobMetrics {
+	private JobMetrics() { }
+
+	private static final int BUCKETS = 64;
+	private static final int PHASES = TreeCutter.PHASES.length;
+
+	/** operations run, per phase - for search phases this is blocks visited. */
+	private static final long[] opCount = new long[PHASES];
+	private static final long[] opNanos = new long[PHASES];
+	private static final long[][] opHistogram = new long[PHASES][BUCKETS];
+
+	private static final long[] jobTickHistogram = new long[BUCKETS];
+
+	private static long jobsQueued;
+	private static long jobsCoalesced;
+	private static long jobsCached;
+	private static long jobsCompleted;
+	private static long jobsTimedOut;
+	private static long jobsCancelled;
+	private static long queuePeakMax;
+	private static long queuePeakSum;
+
+	private static int ticksUntilLog = 0;
+
+	private static int bucket(long value) {
+		return value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value);
+	}
+
+	static void recordOp(int phase, long nanos) {
+		++opCount[phase];
+		opNanos[phase] += nanos;
+		++opHistogram[phase][bucket(nanos)];
+	}
+
+	/** For work done in bulk elsewhere, like off-thread search. */
+	static void recordBulk(int phase, long ops, long nanos) {
+		opCount[phase] += ops;
+		opNanos[phase] += nanos;
+		++opHistogram[phase][bucket(nanos)];
+	}
+
+	static void recordQueued() {
+		++jobsQueued;
+	}
+
+	static void recordCoalesced() {
+		++jobsCoalesced;
+	}
+
+	static void recordCached() {
+		++jobsCached;
+	}
+
+	static void recordTimedOut() {
+		++jobsTimedOut;
+	}
+
+	static void recordCancelled() {
+		++jobsCancelled;
+	}
+
+	/** Called for every job that leaves the running list, including timeouts and cancels. */
+	static void recordFinished(int ticks, int queuePeak) {
+		++jobsCompleted;
+		++jobTickHistogram[bucket(ticks)];
+		queuePeakSum += queuePeak;
+		queuePeakMax = Math.max(queuePeakMax, queuePeak);
+	}
+
+	public static void reset() {
+		Arrays.fill(opCount, 0);
+		Arrays.fill(opNanos, 0);
+
+		for (final long[] h : opHistogram) {
+			Arrays.fill(h, 0);
+		}
+
+		Arrays.fill(jobTickHistogram, 0);
+		jobsQueued = 0;
+		jobsCoalesced = 0;
+		jobsCached = 0;
+		jobsCompleted = 0;
+		jobsTimedOut = 0;
+		jobsCancelled = 0;
+		queuePeakMax = 0;
+		queuePeakSum = 0;
+	}
+
+	/** Upper bound of the bucket containing the given percentile. */
+	private static long percentile(long[] histogram, long count, double pct) {
+		final long target = (long) Math.ceil(count * pct);
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += histogram[i];
+
+			if (seen >= target) {
+				return i == 0 ? 0 : 1L << i;
+			}
+		}
+
+		return Long.MAX_VALUE;
+	}
+
+	private static String formatNanos(long nanos) {
+		if (nanos < 1000) {
+			return nanos + "ns";
+		} else if (nanos < 1_000_000) {
+			return String.format("%.1fus", nanos / 1000.0);
+		} else {
+			return String.format("%.1fms", nanos / 1_000_000.0);
+		}
+	}
+
+	/** Sends one line per phase plus job totals to the output. */
+	public static void report(Consumer<String> output) {
+		if (!Configurator.enableMetrics) {
+			output.accept("Metrics are disabled. Set enableMetrics in the config file.");
+			return;
+		}
+
+		output.accept(String.format("jobs: %d queued, %d coalesced, %d cached, %d finished, %d timed out, %d cancelled; queue peak max %d avg %d; ticks p50 <%d p99 <%d",
+			jobsQueued, jobsCoalesced, jobsCached, jobsCompleted, jobsTimedOut, jobsCancelled, queuePeakMax,
+			jobsCompleted == 0 ? 0 : queuePeakSum / jobsCompleted,
+			percentile(jobTickHistogram, jobsCompleted, 0.5), percentile(jobTickHistogram, jobsCompleted, 0.99)));
+
+		for (int p = 0; p < PHASES; ++p) {
+			final long count = opCount[p];
+
+			if (count > 0) {
+				final long[] histogram = opHistogram[p];
+				long samples = 0;
+
+				for (final long h : histogram) {
+					samples += h;
+				}
+
+				output.accept(String.format("%s: %d ops, %s total, p50 <%s p99 <%s",
+					TreeCutter.PHASES[p], count, formatNanos(opNanos[p]),
+					formatNanos(percentile(histogram, samples, 0.5)), formatNanos(percentile(histogram, samples, 0.99))));
+			}
+		}
+	}
+
+	/** Call once per server tick. Writes a report to the log at the configured interval. */
+	static void tick() {
+		if (!Configurator.enableMetrics || Configurator.metricsLogSeconds == 0) {
+			return;
+		}
+
+		if (--ticksUntilLog <= 0) {
+			ticksUntilLog = Configurator.metricsLogSeconds * 20;
+			report(line -> TreesDoNotFloat.LOG.info("Tree metrics: " + line));
+		}
+	}
+}
@@ -21,7 +21,7 @@
 package grondag.tdnf.world;
 
 import java.util.Collection;
-import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.ToIntFunction;
 
 import net.minecraft.world.level.block.Block;
@@ -40,7 +40,8 @@ public class LeafInfo implements ToIntFunction<BlockState> {
 		maxDistance = prop == null ? 0 : prop.getPossibleValues().stream().max(Integer::compare).orElse(0);
 	}
 
-	private static final IdentityHashMap<Block, LeafInfo> MAP = new IdentityHashMap<>();
+	// concurrent because leaf search may run off-thread
+	private static final ConcurrentHashMap<Block, LeafInfo> MAP = new ConcurrentHashMap<>();
 
 	public static LeafInfo get(Block block) {
 		return MAP.computeIfAbsent(block, b -> {
@@ -21,6 +21,8 @@
 package grondag.tdnf.world;
 
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSets;
 
 import net.minecraft.core.BlockPos;
 import net.minecraft.nbt.CompoundTag;
@@ -34,6 +36,9 @@ public class ProtectionTracker extends SavedData {
 
 	private final LongOpenHashSet set;
 
+	/** read-only copy for off-thread searches, discarded on change. */
+	private LongSet snapshot = null;
+
 	private ProtectionTracker(LongOpenHashSet set) {
 		this.set = set;
 	}
@@ -60,8 +65,29 @@ public class ProtectionTracker extends SavedData {
 		return isProtected(pos.asLong());
 	}
 
+	/**
+	 * Copy of protected positions that is safe to read from another thread.
+	 * Reflects the protection config at the time of the call.
+	 * Must be called on the server thread.
+	 */
+	public LongSet snapshot() {
+		if (!Configurator.protectPlacedBlocks) {
+			return LongSets.EMPTY_SET;
+		}
+
+		LongSet result = snapshot;
+
+		if (result == null) {
+			result = set.clone();
+			snapshot = result;
+		}
+
+		return result;
+	}
+
 	public void protect(long position) {
 		set.add(position);
+		snapshot = null;
 		setDirty();
 	}
 
@@ -70,7 +96,10 @@ public class ProtectionTracker extends SavedData {
 	}
 
 	public void unprotect(long position) {
-		set.remove(position);
+		if (set.remove(position)) {
+			snapshot = null;
+		}
+
 		setDirty();
 	}
 
@@ -0,0 +1,431 @@
+/*
+ * This file is part of Trees Do Not Float and is licensed to the project under
+ * terms that are compatible with the GNU Lesser General Public License.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership and licensing.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package grondag.tdnf.world;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Consumer;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.LeavesBlock;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.PalettedContainer;
+
+import grondag.tdnf.TreesDoNotFloat;
+
+/**
+ * Times tree search phases against generated tree shapes held in synthetic
+ * chunk sections. The world is only used for build height and is never read
+ * or changed. Runs on the calling thread, so expect a lag spike.
+ *
+ * <p>Reports average nanoseconds and allocated bytes per search for each
+ * phase. Allocation figures need a JVM that supports thread allocation
+ * counting and are reported as zero otherwise.
+ *
+ * <p>Forward search always runs, even when the support probe finds support
+ * first, and any shape where the probe finds support that forward search
+ * doesn't is reported.
+ */
+public class SearchBenchmark {
+	private SearchBenchmark() { }
+
+	/** Base of each generated tree - well inside build height and visit packing limits. */
+	private static final int ORIGIN_Y = 64;
+
+	public enum Shape {
+		OAK(SearchBenchmark::oak),
+		SPRUCE_MEGA(SearchBenchmark::spruceMega),
+		JUNGLE_MEGA(SearchBenchmark::jungleMega),
+		DARK_OAK(SearchBenchmark::darkOak),
+		ACACIA(SearchBenchmark::acacia),
+		RED_MUSHROOM(SearchBenchmark::redMushroom),
+		CRIMSON_FUNGUS(b -> fungus(b, Blocks.CRIMSON_STEM, Blocks.NETHER_WART_BLOCK)),
+		WARPED_FUNGUS(b -> fungus(b, Blocks.WARPED_STEM, Blocks.WARPED_WART_BLOCK)),
+		LATTICE(SearchBenchmark::lattice),
+		OAK_ON_LEAVES(b -> oakOnBlock(b, Blocks.OAK_LEAVES)),
+		OAK_ON_STONE(b -> oakOnBlock(b, Blocks.STONE));
+
+		private final Consumer<ShapeBuilder> generator;
+
+		Shape(Consumer<ShapeBuilder> generator) {
+			this.generator = generator;
+		}
+	}
+
+	/** Block states by packed position, relative to a tree base at 0, 0, 0. */
+	static class ShapeBuilder {
+		final Long2ObjectOpenHashMap<BlockState> blocks = new Long2ObjectOpenHashMap<>();
+
+		void set(int x, int y, int z, Block block) {
+			blocks.put(BlockPos.asLong(x, y, z), block.defaultBlockState());
+		}
+
+		/** Only places into air so leaves never replace logs. */
+		void fill(int x, int y, int z, Block block) {
+			blocks.putIfAbsent(BlockPos.asLong(x, y, z), block.defaultBlockState());
+		}
+
+		void blob(int cx, int cy, int cz, int radius, Block block) {
+			final int r2 = radius * radius + radius;
+
+			for (int x = -radius; x <= radius; ++x) {
+				for (int y = -radius; y <= radius; ++y) {
+					for (int z = -radius; z <= radius; ++z) {
+						if (x * x + y * y + z * z <= r2) {
+							fill(cx + x, cy + y, cz + z, block);
+						}
+					}
+				}
+			}
+		}
+
+		void disc(int cx, int y, int cz, int radius, Block block) {
+			final int r2 = radius * radius + radius;
+
+			for (int x = -radius; x <= radius; ++x) {
+				for (int z = -radius; z <= radius; ++z) {
+					if (x * x + z * z <= r2) {
+						fill(cx + x, y, cz + z, block);
+					}
+				}
+			}
+		}
+
+		/** Sets leaf distance the same way vanilla does: steps from the nearest log, capped at 7. */
+		void computeLeafDistance() {
+			final LongArrayFIFOQueue queue = new LongArrayFIFOQueue();
+			final Long2ObjectOpenHashMap<BlockState> result = new Long2ObjectOpenHashMap<>(blocks.size());
+
+			for (final Long2ObjectMap.Entry<BlockState> e : blocks.long2ObjectEntrySet()) {
+				final BlockState state = e.getValue();
+
+				if (state.hasProperty(LeavesBlock.DISTANCE)) {
+					result.put(e.getLongKey(), state.setValue(LeavesBlock.DISTANCE, LeavesBlock.DECAY_DISTANCE));
+				} else {
+					result.put(e.getLongKey(), state);
+
+					if (TreeBlock.isLog(state)) {
+						queue.enqueue(e.getLongKey());
+					}
+				}
+			}
+
+			while (!queue.isEmpty()) {
+				final long pos = queue.dequeueLong();
+				final BlockState from = result.get(pos);
+				final int distance = from.hasProperty(LeavesBlock.DISTANCE) ? from.getValue(LeavesBlock.DISTANCE) : 0;
+
+				if (distance + 1 >= LeavesBlock.DECAY_DISTANCE) {
+					continue;
+				}
+
+				for (final Direction face : Direction.values()) {
+					final long next = BlockPos.offset(pos, face);
+					final BlockState state = result.get(next);
+
+					if (state != null && state.hasProperty(LeavesBlock.DISTANCE) && state.getValue(LeavesBlock.DISTANCE) > distance + 1) {
+						result.put(next, state.setValue(LeavesBlock.DISTANCE, distance + 1));
+						queue.enqueue(next);
+					}
+				}
+			}
+
+			blocks.clear();
+			blocks.putAll(result);
+		}
+	}
+
+	private static void oak(ShapeBuilder b) {
+		for (int y = 0; y < 5; ++y) {
+			b.set(0, y, 0, Blocks.OAK_LOG);
+		}
+
+		for (int y = 2; y <= 3; ++y) {
+			for (int x = -2; x <= 2; ++x) {
+				for (int z = -2; z <= 2; ++z) {
+					if (Math.abs(x) + Math.abs(z) < 4) {
+						b.fill(x, y, z, Blocks.OAK_LEAVES);
+					}
+				}
+			}
+		}
+
+		b.disc(0, 4, 0, 1, Blocks.OAK_LEAVES);
+		b.disc(0, 5, 0, 1, Blocks.OAK_LEAVES);
+	}
+
+	/** Oak with a log beside the base resting on the given block. Only stone keeps it standing. */
+	private static void oakOnBlock(ShapeBuilder b, Block below) {
+		oak(b);
+		b.set(1, 0, 0, Blocks.OAK_LOG);
+		b.set(1, -1, 0, below);
+	}
+
+	private static void megaTrunk(ShapeBuilder b, int height, Block log) {
+		for (int y = 0; y < height; ++y) {
+			b.set(0, y, 0, log);
+			b.set(1, y, 0, log);
+			b.set(0, y, 1, log);
+			b.set(1, y, 1, log);
+		}
+	}
+
+	private static void spruceMega(ShapeBuilder b) {
+		final int height = 24;
+		megaTrunk(b, height, Blocks.SPRUCE_LOG);
+
+		for (int y = 6; y <= height; ++y) {
+			b.disc(0, y, 0, Math.max(1, (height - y) / 4 + 1), Blocks.SPRUCE_LEAVES);
+		}
+	}
+
+	private static void jungleMega(ShapeBuilder b) {
+		final int height = 28;
+		megaTrunk(b, height, Blocks.JUNGLE_LOG);
+
+		// branches in alternating directions, each ending in a leaf blob
+		final Direction[] faces = {Direction.NORTH, Direction.EAST, Direction.SOUTH, Direction.WEST};
+
+		for (int i = 0; i < 4; ++i) {
+			final Direction face = faces[i];
+			final int y0 = 12 + i * 4;
+			int x = 0;
+			int z = 0;
+			int y = y0;
+
+			for (int j = 1; j <= 4; ++j) {
+				x += face.getStepX();
+				z += face.getStepZ();
+				y += j & 1;
+				b.set(x, y, z, Blocks.JUNGLE_LOG);
+			}
+
+			b.blob(x, y + 1, z, 2, Blocks.JUNGLE_LEAVES);
+		}
+
+		b.blob(0, height, 0, 4, Blocks.JUNGLE_LEAVES);
+	}
+
+	/** Short thick trunk under a wide, flat canopy - leaf search dominates. */
+	private static void darkOak(ShapeBuilder b) {
+		final int height = 7;
+		megaTrunk(b, height, Blocks.DARK_OAK_LOG);
+
+		// stubby branches at each corner of the crown
+		b.set(-1, height - 1, -1, Blocks.DARK_OAK_LOG);
+		b.set(2, height - 1, -1, Blocks.DARK_OAK_LOG);
+		b.set(-1, height - 1, 2, Blocks.DARK_OAK_LOG);
+		b.set(2, height - 1, 2, Blocks.DARK_OAK_LOG);
+
+		for (int y = height - 3; y <= height + 1; ++y) {
+			final int radius = y == height + 1 ? 3 : y == height - 3 ? 4 : 5;
+			b.disc(0, y, 0, radius, Blocks.DARK_OAK_LEAVES);
+			b.disc(1, y, 1, radius, Blocks.DARK_OAK_LEAVES);
+		}
+	}
+
+	/** Trunk that leans diagonally into a wide, thin canopy. */
+	private static void acacia(ShapeBuilder b) {
+		for (int y = 0; y < 4; ++y) {
+			b.set(0, y, 0, Blocks.ACACIA_LOG);
+		}
+
+		for (int i = 1; i <= 3; ++i) {
+			b.set(i, 3 + i, 0, Blocks.ACACIA_LOG);
+		}
+
+		b.set(-1, 4, 0, Blocks.ACACIA_LOG);
+		b.set(-2, 5, 0, Blocks.ACACIA_LOG);
+
+		b.disc(3, 7, 0, 3, Blocks.ACACIA_LEAVES);
+		b.disc(3, 8, 0, 1, Blocks.ACACIA_LEAVES);
+		b.disc(-2, 6, 0, 2, Blocks.ACACIA_LEAVES);
+		b.disc(-2, 7, 0, 1, Blocks.ACACIA_LEAVES);
+	}
+
+	private static void redMushroom(ShapeBuilder b) {
+		for (int y = 0; y < 5; ++y) {
+			b.set(0, y, 0, Blocks.MUSHROOM_STEM);
+		}
+
+		for (int x = -2; x <= 2; ++x) {
+			for (int z = -2; z <= 2; ++z) {
+				b.fill(x, 5, z, Blocks.RED_MUSHROOM_BLOCK);
+
+				if (Math.abs(x) == 2 || Math.abs(z) == 2) {
+					for (int y = 2; y < 5; ++y) {
+						b.fill(x, y, z, Blocks.RED_MUSHROOM_BLOCK);
+					}
+				}
+			}
+		}
+	}
+
+	private static void fungus(ShapeBuilder b, Block stem, Block wart) {
+		for (int y = 0; y < 9; ++y) {
+			b.set(0, y, 0, stem);
+		}
+
+		b.blob(0, 7, 0, 3, wart);
+
+		// deterministic sprinkle of lights through the cap
+		int i = 0;
+
+		for (final Long2ObjectMap.Entry<BlockState> e : b.blocks.long2ObjectEntrySet()) {
+			if (e.getValue().is(wart) && ++i % 7 == 0) {
+				e.setValue(Blocks.SHROOMLIGHT.defaultBlockState());
+			}
+		}
+	}
+
+	/** 256 logs in an 8x8x8 cube, all connected only diagonally. */
+	private static void lattice(ShapeBuilder b) {
+		for (int x = 0; x < 8; ++x) {
+			for (int y = 0; y < 8; ++y) {
+				for (int z = 0; z < 8; ++z) {
+					if (((x + y + z) & 1) == 0) {
+						b.set(x, y, z, Blocks.OAK_LOG);
+					}
+				}
+			}
+		}
+	}
+
+	private static Long2ObjectOpenHashMap<PalettedContainer<BlockState>> buildSections(Shape shape) {
+		final ShapeBuilder builder = new ShapeBuilder();
+		shape.generator.accept(builder);
+		builder.computeLeafDistance();
+
+		final Long2ObjectOpenHashMap<PalettedContainer<BlockState>> result = new Long2ObjectOpenHashMap<>();
+
+		for (final Long2ObjectMap.Entry<BlockState> e : builder.blocks.long2ObjectEntrySet()) {
+			final long pos = e.getLongKey();
+			final int x = BlockPos.getX(pos);
+			final int y = BlockPos.getY(pos) + ORIGIN_Y;
+			final int z = BlockPos.getZ(pos);
+			final long key = SectionPos.asLong(SectionPos.blockToSectionCoord(x), SectionPos.blockToSectionCoord(y), SectionPos.blockToSectionCoord(z));
+			PalettedContainer<BlockState> states = result.get(key);
+
+			if (states == null) {
+				states = new PalettedContainer<>(Block.BLOCK_STATE_REGISTRY, Blocks.AIR.defaultBlockState(), PalettedContainer.Strategy.SECTION_STATES);
+				result.put(key, states);
+			}
+
+			states.set(x & 15, y & 15, z & 15, e.getValue());
+		}
+
+		return result;
+	}
+
+	private static long allocatedBytes() {
+		if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean && bean.isThreadAllocatedMemorySupported()) {
+			return bean.getCurrentThreadAllocatedBytes();
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Runs each shape the given number of times after an equal number of warm-up
+	 * runs and sends one line of results per shape to the output.
+	 */
+	public static void run(ServerLevel world, int iterations, Consumer<String> output) {
+		final ProtectionTracker protectionTracker = new ProtectionTracker();
+		final DoomIndex doomIndex = new DoomIndex();
+		final TreeRegistry treeRegistry = new TreeRegistry();
+		final int phaseCount = TreeCutter.SEARCH_PHASE_COUNT;
+
+		for (final Shape shape : Shape.values()) {
+			final Long2ObjectOpenHashMap<PalettedContainer<BlockState>> sections = buildSections(shape);
+			final long[] nanos = new long[phaseCount];
+			final long[] bytes = new long[phaseCount];
+			int logCount = 0;
+			boolean probeMismatch = false;
+
+			for (int i = -iterations; i < iterations; ++i) {
+				// warm-up runs still execute everything, results are just discarded
+				final boolean measure = i >= 0;
+				final TreeJob job = TreeJob.claim(BlockPos.asLong(0, ORIGIN_Y, 0), null, null, protectionTracker, doomIndex, treeRegistry);
+				final TreeCutter cutter = job.cutter;
+				cutter.checkProbe = true;
+				final SectionCache cache = cutter.sections();
+				cache.freezeEmpty(world);
+
+				for (final Long2ObjectMap.Entry<PalettedContainer<BlockState>> e : sections.long2ObjectEntrySet()) {
+					final long key = e.getLongKey();
+					cache.putSection(SectionPos.x(key), SectionPos.y(key), SectionPos.z(key), e.getValue());
+				}
+
+				int phase = cutter.searchPhase();
+				long startNanos = System.nanoTime();
+				long startBytes = allocatedBytes();
+
+				while (phase >= 0) {
+					cutter.step(world);
+					final int nextPhase = cutter.searchPhase();
+
+					if (nextPhase != phase) {
+						final long endNanos = System.nanoTime();
+						final long endBytes = allocatedBytes();
+
+						if (measure) {
+							nanos[phase] += endNanos - startNanos;
+							bytes[phase] += endBytes - startBytes;
+						}
+
+						startNanos = endNanos;
+						startBytes = endBytes;
+						phase = nextPhase;
+					}
+				}
+
+				logCount = cutter.logCount();
+				probeMismatch |= cutter.probeDisagrees();
+				job.release();
+			}
+
+			final StringBuilder line = new StringBuilder();
+			line.append(shape.name().toLowerCase()).append(" (").append(logCount).append(" logs):");
+
+			for (int p = 0; p < phaseCount; ++p) {
+				line.append(String.format(" %s %.1fus/%dB", TreeCutter.PHASES[p], nanos[p] / 1000.0 / iterations, bytes[p] / iterations));
+			}
+
+			if (probeMismatch) {
+				line.append(" PROBE MISMATCH");
+				TreesDoNotFloat.LOG.warn("Search benchmark: support probe disagrees with forward search for " + shape.name().toLowerCase());
+			}
+
+			final String result = line.toString();
+			TreesDoNotFloat.LOG.info("Search benchmark: " + result);
+			output.accept(result);
+		}
+	}
+}
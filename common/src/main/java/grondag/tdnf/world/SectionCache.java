@@ -0,0 +1,295 @@
+/*
+ * This file is part of Trees Do Not Float and is licensed to the project under
+ * terms that are compatible with the GNU Lesser General Public License.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership and licensing.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package grondag.tdnf.world;
+
+import java.util.Arrays;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.jetbrains.annotations.Nullable;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.BlockGetter;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.material.FluidState;
+
+/**
+ * Block state reader for a single tree job. Resolves each chunk section
+ * once and then serves lookups directly from the section palette, avoiding
+ * the chunk map lookup done by {@link Level#getBlockState(BlockPos)}.
+ *
+ * <p>Sections are held in a small direct-mapped array keyed by section
+ * coordinates relative to the job start. Trees rarely span more than a
+ * few sections so collisions are uncommon and only cost a re-resolve.
+ *
+ * <p>Live sections are only cached for the current tick because chunks can
+ * unload between ticks. Chunks are never loaded by lookups. Callers check
+ * {@link #isLoaded(long)} first; live lookups in unloaded chunks return air. When frozen, the cache instead serves private copies
+ * of sections captured on the server thread, so that a search can run on
+ * another thread. Frozen lookups outside the captured sections return air;
+ * callers should check {@link #hasSection(long)} first.
+ *
+ * <p>Not thread-safe. Only one thread should use an instance at a time.
+ */
+public class SectionCache implements BlockGetter {
+	private static final int AXIS_MASK = 7;
+	private static final int SLOT_COUNT = 512;
+
+	private static PalettedContainer<BlockState> emptySection;
+
+	private final long[] keys = new long[SLOT_COUNT];
+
+	@SuppressWarnings("unchecked")
+	private final PalettedContainer<BlockState>[] sections = new PalettedContainer[SLOT_COUNT];
+
+	/** section copies, keyed by packed section pos - only populated when frozen. */
+	private final Long2ObjectOpenHashMap<PalettedContainer<BlockState>> snapshot = new Long2ObjectOpenHashMap<>();
+
+	private Level world;
+	private boolean frozen = false;
+	private int xSectionStart;
+	private int zSectionStart;
+
+	private static int slot(int rx, int sy, int rz) {
+		return (rx & AXIS_MASK) | ((rz & AXIS_MASK) << 3) | ((sy & AXIS_MASK) << 6);
+	}
+
+	private static PalettedContainer<BlockState> emptySection() {
+		PalettedContainer<BlockState> result = emptySection;
+
+		if (result == null) {
+			result = new PalettedContainer<>(Block.BLOCK_STATE_REGISTRY, Blocks.AIR.defaultBlockState(), PalettedContainer.Strategy.SECTION_STATES);
+			emptySection = result;
+		}
+
+		return result;
+	}
+
+	/** Call when job starts. */
+	public void reset(long startPos) {
+		xSectionStart = SectionPos.blockToSectionCoord(BlockPos.getX(startPos));
+		zSectionStart = SectionPos.blockToSectionCoord(BlockPos.getZ(startPos));
+		world = null;
+		frozen = false;
+		snapshot.clear();
+		Arrays.fill(sections, null);
+	}
+
+	/** Call at start of each tick, before any lookups. Must not be called while frozen. */
+	public void prepareForTick(Level world) {
+		assert !frozen;
+		this.world = world;
+		Arrays.fill(sections, null);
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Switches to serving copies of the sections around the given position.
+	 * Must be called on the server thread.
+	 */
+	public void freeze(Level world, long packedPos) {
+		this.world = world;
+		frozen = true;
+		snapshot.clear();
+		Arrays.fill(sections, null);
+
+		final int sx = SectionPos.blockToSectionCoord(BlockPos.getX(packedPos));
+		final int sz = SectionPos.blockToSectionCoord(BlockPos.getZ(packedPos));
+		final int sy = SectionPos.blockToSectionCoord(BlockPos.getY(packedPos));
+
+		// trees mostly grow up
+		for (int y = sy - 1; y <= sy + 2; ++y) {
+			for (int x = sx - 1; x <= sx + 1; ++x) {
+				for (int z = sz - 1; z <= sz + 1; ++z) {
+					capture(x, y, z);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds copies of the section containing the given position and its
+	 * neighbors to a frozen cache. Must be called on the server thread.
+	 */
+	public void captureAround(long packedPos) {
+		assert frozen;
+
+		final int sx = SectionPos.blockToSectionCoord(BlockPos.getX(packedPos));
+		final int sy = SectionPos.blockToSectionCoord(BlockPos.getY(packedPos));
+		final int sz = SectionPos.blockToSectionCoord(BlockPos.getZ(packedPos));
+
+		for (int y = sy - 1; y <= sy + 1; ++y) {
+			for (int x = sx - 1; x <= sx + 1; ++x) {
+				for (int z = sz - 1; z <= sz + 1; ++z) {
+					capture(x, y, z);
+				}
+			}
+		}
+	}
+
+	private void capture(int sx, int sectionY, int sz) {
+		final Level world = this.world;
+
+		if (sectionY < world.getMinSection() || sectionY >= world.getMaxSection()) {
+			return;
+		}
+
+		final long key = SectionPos.asLong(sx, sectionY, sz);
+
+		if (!snapshot.containsKey(key)) {
+			final LevelChunk chunk = world.getChunkSource().getChunkNow(sx, sz);
+
+			// if not captured, search will stop and ask for it again once loaded
+			if (chunk != null) {
+				final LevelChunkSection section = chunk.getSection(world.getSectionIndexFromSectionY(sectionY));
+				snapshot.put(key, section.hasOnlyAir() ? emptySection() : section.getStates().copy());
+			}
+		}
+	}
+
+	/** Freezes with no captured sections. Content is then added with {@link #putSection}. */
+	void freezeEmpty(Level world) {
+		this.world = world;
+		frozen = true;
+		snapshot.clear();
+		Arrays.fill(sections, null);
+	}
+
+	/** Adds a section to a frozen cache. Used with synthetic content for benchmarks. */
+	void putSection(int sx, int sectionY, int sz, PalettedContainer<BlockState> states) {
+		assert frozen;
+		snapshot.put(SectionPos.asLong(sx, sectionY, sz), states);
+	}
+
+	/** Returns to serving live sections. Must be called on the server thread. */
+	public void thaw(Level world) {
+		frozen = false;
+		snapshot.clear();
+		prepareForTick(world);
+	}
+
+	/**
+	 * True if the chunk containing the given position is loaded. Never loads it.
+	 * Always true when frozen - use {@link #hasSection(long)} instead.
+	 */
+	public boolean isLoaded(long packedPos) {
+		if (frozen) {
+			return true;
+		}
+
+		final int sx = SectionPos.blockToSectionCoord(BlockPos.getX(packedPos));
+		final int sz = SectionPos.blockToSectionCoord(BlockPos.getZ(packedPos));
+		return world.getChunkSource().getChunkNow(sx, sz) != null;
+	}
+
+	/** True if a lookup at the given position will be accurate. Always true when not frozen. */
+	public boolean hasSection(long packedPos) {
+		if (!frozen) {
+			return true;
+		}
+
+		final int y = BlockPos.getY(packedPos);
+
+		if (world.isOutsideBuildHeight(y)) {
+			return true;
+		}
+
+		return snapshot.containsKey(SectionPos.asLong(SectionPos.blockToSectionCoord(BlockPos.getX(packedPos)), SectionPos.blockToSectionCoord(y), SectionPos.blockToSectionCoord(BlockPos.getZ(packedPos))));
+	}
+
+	@Override
+	public BlockState getBlockState(BlockPos pos) {
+		final Level world = this.world;
+		final int y = pos.getY();
+
+		if (world.isOutsideBuildHeight(y)) {
+			return Blocks.VOID_AIR.defaultBlockState();
+		}
+
+		if (world.isDebug()) {
+			return world.getBlockState(pos);
+		}
+
+		final int x = pos.getX();
+		final int z = pos.getZ();
+		final int sx = SectionPos.blockToSectionCoord(x);
+		final int sz = SectionPos.blockToSectionCoord(z);
+		final int sy = world.getSectionIndex(y);
+		final long key = SectionPos.asLong(sx, sy, sz);
+		final int slot = slot(sx - xSectionStart, sy, sz - zSectionStart);
+
+		PalettedContainer<BlockState> states = sections[slot];
+
+		if (states == null || keys[slot] != key) {
+			if (frozen) {
+				states = snapshot.get(SectionPos.asLong(sx, SectionPos.blockToSectionCoord(y), sz));
+
+				if (states == null) {
+					return Blocks.AIR.defaultBlockState();
+				}
+			} else {
+				final LevelChunk chunk = world.getChunkSource().getChunkNow(sx, sz);
+
+				if (chunk == null) {
+					return Blocks.AIR.defaultBlockState();
+				}
+
+				states = chunk.getSection(sy).getStates();
+			}
+
+			sections[slot] = states;
+			keys[slot] = key;
+		}
+
+		return states.get(x & 15, y & 15, z & 15);
+	}
+
+	@Override
+	public FluidState getFluidState(BlockPos pos) {
+		return getBlockState(pos).getFluidState();
+	}
+
+	@Override
+	@Nullable
+	public BlockEntity getBlockEntity(BlockPos pos) {
+		return frozen ? null : world.getBlockEntity(pos);
+	}
+
+	@Override
+	public int getHeight() {
+		return world.getHeight();
+	}
+
+	@Override
+	public int getMinBuildHeight() {
+		return world.getMinBuildHeight();
+	}
+}
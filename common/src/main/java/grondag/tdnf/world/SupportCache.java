@@ -0,0 +1,159 @@
+/*
+ * This file is part of Trees Do Not Float and is licensed to the project under
+ * terms that are compatible with the GNU Lesser General Public License.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership and licensing.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package grondag.tdnf.world;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.state.BlockState;
+
+/**
+ * Start positions of recent jobs that found their tree still supported, so
+ * that repeated neighbor changes under the same tree don't search it again.
+ *
+ * <p>Entries are grouped by chunk. Removing any log in a chunk drops all of
+ * that chunk's entries because the log may have been on the path to support,
+ * so only paths that stay within one chunk are recorded. The support block
+ * is neither a log nor leaves, the same as for forward search, and is checked
+ * again on each lookup. Entries expire after a
+ * minute and are all dropped when config is read.
+ *
+ * <p>Server thread only.
+ */
+public class SupportCache {
+	private static final long EXPIRY_TICKS = 1200;
+
+	/** Bumped on config change - see {@link #invalidateAll()}. */
+	private static int generation = 0;
+
+	private final Long2ObjectOpenHashMap<ChunkEntries> chunks = new Long2ObjectOpenHashMap<>();
+	private final BlockPos.MutableBlockPos searchPos = new BlockPos.MutableBlockPos();
+	private int seenGeneration = generation;
+	private long nextSweepTick = 0;
+
+	private static class ChunkEntries {
+		/** Support position by start position. */
+		private final Long2LongOpenHashMap supports = new Long2LongOpenHashMap();
+		private final long expires;
+
+		private ChunkEntries(long expires) {
+			this.expires = expires;
+			supports.defaultReturnValue(Long.MAX_VALUE);
+		}
+	}
+
+	/** Drops entries in every world. Called when config is read. */
+	public static void invalidateAll() {
+		++generation;
+	}
+
+	private static long chunkKey(long packedPos) {
+		return ChunkPos.asLong(SectionPos.blockToSectionCoord(BlockPos.getX(packedPos)), SectionPos.blockToSectionCoord(BlockPos.getZ(packedPos)));
+	}
+
+	private void update(long gameTime) {
+		if (seenGeneration != generation) {
+			seenGeneration = generation;
+			chunks.clear();
+		} else if (gameTime >= nextSweepTick && !chunks.isEmpty()) {
+			chunks.values().removeIf(e -> e.expires <= gameTime);
+		}
+
+		if (gameTime >= nextSweepTick) {
+			nextSweepTick = gameTime + EXPIRY_TICKS;
+		}
+	}
+
+	/** Records that the log at the start position is supported by the block at the support position. */
+	public void record(Level world, long startPos, long supportPos) {
+		final BlockState state = world.getBlockState(searchPos.set(supportPos));
+
+		if (!isSupport(world, state)) {
+			return;
+		}
+
+		final long gameTime = world.getGameTime();
+		update(gameTime);
+		final long key = chunkKey(startPos);
+		ChunkEntries entries = chunks.get(key);
+
+		if (entries == null || entries.expires <= gameTime) {
+			entries = new ChunkEntries(gameTime + EXPIRY_TICKS);
+			chunks.put(key, entries);
+		}
+
+		entries.supports.put(startPos, supportPos);
+	}
+
+	/** True if the log at the start position was recently found supported and still is. */
+	public boolean isSupported(Level world, long startPos) {
+		final long gameTime = world.getGameTime();
+		update(gameTime);
+
+		if (chunks.isEmpty()) {
+			return false;
+		}
+
+		final long key = chunkKey(startPos);
+		final ChunkEntries entries = chunks.get(key);
+
+		if (entries == null) {
+			return false;
+		}
+
+		if (entries.expires <= gameTime) {
+			chunks.remove(key);
+			return false;
+		}
+
+		final long supportPos = entries.supports.get(startPos);
+
+		if (supportPos == Long.MAX_VALUE) {
+			return false;
+		}
+
+		final BlockState state = world.getBlockState(searchPos.set(supportPos));
+
+		if (isSupport(world, state)) {
+			return true;
+		}
+
+		entries.supports.remove(startPos);
+		return false;
+	}
+
+	/** Same test forward search uses for support below a log. Expects {@link #searchPos} to hold the position. */
+	private boolean isSupport(Level world, BlockState state) {
+		return !TreeBlock.isLog(state) && !TreeBlockState.isLeaf(state) && TreeBlockState.hasFullTop(state, world, searchPos);
+	}
+
+	/** Call when a log is removed, for any reason. */
+	public void logRemoved(long packedPos) {
+		if (!chunks.isEmpty()) {
+			chunks.remove(chunkKey(packedPos));
+		}
+	}
+}
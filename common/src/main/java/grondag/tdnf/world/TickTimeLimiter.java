@@ -22,13 +22,41 @@ package grondag.tdnf.world;
 
 import grondag.tdnf.config.Configurator;
 
+/**
+ * Wall-clock budget for job processing in the world currently ticking.
+ * {@link Configurator#tickBudget} is in steps of 10ms - one percent of a
+ * second, the same scale as before the budget was enforced - and is shared
+ * by all worlds. See {@link Dispatcher} for how it is divided.
+ */
 public class TickTimeLimiter {
 	private TickTimeLimiter() { }
 
+	private static final long NANOS_PER_BUDGET_STEP = 10_000_000L;
+
+	static long budgetNanos;
+	static long startTime;
 	static long maxTime;
 
-	public static void reset() {
-		maxTime = System.nanoTime() + 1000000000 / 100 * Configurator.tickBudget;
+	/** Nanoseconds available to all worlds in one server tick. */
+	public static long serverBudgetNanos() {
+		return NANOS_PER_BUDGET_STEP * Configurator.tickBudget;
+	}
+
+	/** Starts timing for one world, with the given allowance. */
+	public static void reset(long worldBudgetNanos) {
+		budgetNanos = worldBudgetNanos;
+		startTime = System.nanoTime();
+		maxTime = startTime + worldBudgetNanos;
+	}
+
+	/** Total nanoseconds available to the world being ticked. */
+	public static long budgetNanos() {
+		return budgetNanos;
+	}
+
+	/** Nanoseconds used since last reset. */
+	public static long elapsedNanos() {
+		return System.nanoTime() - startTime;
 	}
 
 	public static boolean canRun() {
@@ -0,0 +1,113 @@
+/*
+ * This file is part of Trees Do Not Float and is licensed to the project under
+ * terms that are compatible with the GNU Lesser General Public License.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership and licensing.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package grondag.tdnf.world;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.tags.BlockTags;
+import net.minecraft.world.level.BlockGetter;
+import net.minecraft.world.level.EmptyBlockGetter;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.phys.shapes.CollisionContext;
+
+/**
+ * Per-state flags used on hot paths, implemented by a mixin on block states.
+ * Flags are computed on first use and again after {@link BlockClassifier#invalidate()}.
+ */
+public interface TreeBlockState {
+	int FLAG_LOG = 1;
+
+	/** Collision shape has a full top face. Not meaningful when {@link #FLAG_DYNAMIC_SHAPE} is set. */
+	int FLAG_FULL_TOP = 2;
+
+	/** Shape depends on position so must be checked in the world. */
+	int FLAG_DYNAMIC_SHAPE = 4;
+
+	/** Tagged as leaves. */
+	int FLAG_LEAF = 8;
+
+	/** Leaf distance is held in four bits above flags. Zero unless {@link #FLAG_LEAF} is set. */
+	int LEAF_DISTANCE_SHIFT = 4;
+	int LEAF_DISTANCE_MASK = 0xF;
+
+	/** Largest possible leaf distance for the block, in four bits above distance. */
+	int LEAF_MAX_DISTANCE_SHIFT = 8;
+
+	int treeStateFlags();
+
+	static int getFlags(BlockState blockState) {
+		return ((TreeBlockState) blockState).treeStateFlags();
+	}
+
+	static boolean isLog(BlockState blockState) {
+		return (getFlags(blockState) & FLAG_LOG) != 0;
+	}
+
+	static boolean isLeaf(BlockState blockState) {
+		return (getFlags(blockState) & FLAG_LEAF) != 0;
+	}
+
+	/** Value of the distance property for leaves, or 1 if leaves have none. Zero for non-leaves. */
+	static int leafDistance(BlockState blockState) {
+		return (getFlags(blockState) >> LEAF_DISTANCE_SHIFT) & LEAF_DISTANCE_MASK;
+	}
+
+	/** Largest distance value the block's leaves can have. Zero for non-leaves or leaves without distance. */
+	static int leafMaxDistance(BlockState blockState) {
+		return (getFlags(blockState) >> LEAF_MAX_DISTANCE_SHIFT) & LEAF_DISTANCE_MASK;
+	}
+
+	/** Same result as checking the collision shape, but without doing so for most blocks. */
+	static boolean hasFullTop(BlockState blockState, BlockGetter world, BlockPos pos) {
+		final int flags = getFlags(blockState);
+
+		if ((flags & FLAG_DYNAMIC_SHAPE) == 0) {
+			return (flags & FLAG_FULL_TOP) != 0;
+		} else {
+			return Block.isFaceFull(blockState.getCollisionShape(world, pos, CollisionContext.empty()), Direction.UP);
+		}
+	}
+
+	static int computeFlags(BlockState blockState) {
+		int result = 0;
+
+		if (TreeBlock.isLog(blockState)) {
+			result |= FLAG_LOG;
+		}
+
+		if (blockState.is(BlockTags.LEAVES)) {
+			final LeafInfo info = LeafInfo.get(blockState.getBlock());
+			final int distance = Math.min(LEAF_DISTANCE_MASK, info.applyAsInt(blockState));
+			final int maxDistance = Math.min(LEAF_DISTANCE_MASK, info.maxDistance);
+			result |= FLAG_LEAF | (distance << LEAF_DISTANCE_SHIFT) | (maxDistance << LEAF_MAX_DISTANCE_SHIFT);
+		}
+
+		if (blockState.getBlock().hasDynamicShape()) {
+			result |= FLAG_DYNAMIC_SHAPE;
+		} else if (Block.isFaceFull(blockState.getCollisionShape(EmptyBlockGetter.INSTANCE, BlockPos.ZERO, CollisionContext.empty()), Direction.UP)) {
+			result |= FLAG_FULL_TOP;
+		}
+
+		return result;
+	}
+}
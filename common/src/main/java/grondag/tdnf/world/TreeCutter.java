@@ -20,32 +20,35 @@
 
 package grondag.tdnf.world;
 
+import java.util.Arrays;
 import java.util.Random;
-import java.util.function.Predicate;
+import java.util.concurrent.CompletableFuture;
 
 import io.netty.util.internal.ThreadLocalRandom;
-import it.unimi.dsi.fastutil.longs.Long2IntMap.Entry;
-import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongComparator;
 import it.unimi.dsi.fastutil.longs.LongComparators;
 import it.unimi.dsi.fastutil.longs.LongHeapPriorityQueue;
+import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
-import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
+import net.minecraft.Util;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
 import net.minecraft.core.Direction.Axis;
+import net.minecraft.core.SectionPos;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.stats.Stats;
-import net.minecraft.tags.BlockTags;
 import net.minecraft.world.item.Item;
 import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.item.TieredItem;
 import net.minecraft.world.item.enchantment.EnchantmentHelper;
 import net.minecraft.world.item.enchantment.Enchantments;
+import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.Blocks;
@@ -53,10 +56,11 @@ import net.minecraft.world.level.block.RotatedPillarBlock;
 import net.minecraft.world.level.block.entity.BlockEntity;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.material.FluidState;
-import net.minecraft.world.phys.shapes.CollisionContext;
 
 import grondag.tdnf.FallingLogEntity;
+import grondag.tdnf.TreesDoNotFloat;
 import grondag.tdnf.config.Configurator;
+import grondag.tdnf.config.Configurator.FallCondition;
 
 /**
  * Call when log neighbors change. Will check for a tree-like structure starting
@@ -76,25 +80,54 @@ import grondag.tdnf.config.Configurator;
  * <li>Diagonal can only continue sideways or in same diagonal direction.
  * <li>All blocks marked in this second search are removed from the set.
  * </ul>
+ *
+ * <p>When {@link Configurator#asyncSearch} is enabled the search phases run
+ * on a background thread against copies of the relevant chunk sections.
+ * The job does not run on the server thread while that happens. Breaking
+ * always happens on the server thread and checks current block states.
  */
 public class TreeCutter {
 	private Operation operation = Operation.COMPLETE;
 
 	private final LongHeapPriorityQueue toVisit = new LongHeapPriorityQueue();
 
+	/** Lowest positions first - see {@link #probeSupport()}. */
+	private final LongHeapPriorityQueue probeQueue = new LongHeapPriorityQueue();
+
+	/** Max logs examined by {@link #probeSupport()} before giving up. */
+	private static final int MAX_PROBE_STEPS = 64;
+
+	/** Search stops following a path at this depth. Limited by visit packing. */
+	private static final int MAX_DEPTH = 0xFFFF;
+
+	/** Chunk that must be loaded before this job can continue, or Long.MAX_VALUE. */
+	private long parkedChunk = Long.MAX_VALUE;
+
+	/** Last chunk found loaded this tick, to avoid repeating the lookup. */
+	private long loadedChunk = Long.MAX_VALUE;
+
+	/** Support found by {@link #probeSupport()} if all logs it saw were in one chunk, else Long.MAX_VALUE. */
+	private long verifiedSupport = Long.MAX_VALUE;
+
+	/** Set by {@link SearchBenchmark} so forward search still runs after the probe finds support. */
+	boolean checkProbe = false;
+
+	/** True if {@link #probeSupport()} found support. */
+	private boolean probeFoundSupport = false;
+
+	/** True if forward search ended on support below a directly connected log. */
+	private boolean searchFoundSupport = false;
+
 	/**
-	 * Packed positions that have received a valid visit on forward pass.
-	 * Values are one of the SEARCH_ constants and when the value indicates a log
-	 * the depth of the log is also stored in the upper bits of the value.
+	 * Positions that have received a valid visit on forward pass.
+	 * Types are one of the SEARCH_ constants and when the type indicates a log
+	 * the depth of the log is also recorded.
 	 * This enables sorting of logs by depth order later on.
 	 */
-	private final Long2IntOpenHashMap forwardVisits = new Long2IntOpenHashMap();
+	private final VisitGrid forwardVisits = new VisitGrid();
 
-	private static final int VISIT_TYPE_MASK = 0xFF;
-	private static final int VISIT_DEPTH_SHIFT = 8;
-
-	/** packed positions that have received a valid visit on leaf pass. */
-	private final Long2IntOpenHashMap leafVisits = new Long2IntOpenHashMap();
+	/** positions that have received a valid visit on leaf pass. */
+	private final VisitGrid leafVisits = new VisitGrid();
 
 	/** packed positions of supports for inverse search - populated during forward search. */
 	private final LongArrayFIFOQueue supports = new LongArrayFIFOQueue();
@@ -104,19 +137,65 @@ public class TreeCutter {
 	/** packed positions of logs to be cleared - populated during pre-clearing. */
 	private final LongArrayList logs = new LongArrayList();
 
+	/**
+	 * Copy of {@link #logs} in bottom-up order, used to seed leaf and ownership search.
+	 * Needed because logs are removed from {@link #logs} while streaming.
+	 */
+	private final LongArrayList leafSeeds = new LongArrayList();
+
 	private final ObjectArrayList<BlockState> fallingLogStates = new ObjectArrayList<>();
 
 	/** Used to iterate {@link #logs}. */
 	private int fallingLogIndex = 0;
 
-	/** leaves to be cleared - populated during pre-clearing. */
-	private final LongArrayFIFOQueue leaves = new LongArrayFIFOQueue();
+	/** leaves to be cleared - populated during leaf search. */
+	private final LongArrayList leaves = new LongArrayList();
+
+	/** index of next leaf to clear. */
+	private int leafClearIndex = 0;
+
+	/** logs that will remain, found next to leaves during leaf search - seeds for leaf ownership. */
+	private final LongArrayList foreignLogs = new LongArrayList();
+
+	/** positions examined by leaf search, checked against {@link #MAX_LEAF_SEARCH_VOLUME}. */
+	private int leafSearchVolume = 0;
+
+	/**
+	 * Leaf search stops expanding after examining this many positions. Leaves
+	 * found by then are still cleared. Bounds the cost of dense, overlapping forests.
+	 */
+	private static final int MAX_LEAF_SEARCH_VOLUME = 32768;
+
+	/**
+	 * How far leaf search may go outside the bounds of a generated tree. Leaves
+	 * inside the bounds can be claimed by a log of another tree up to this far
+	 * away, and that log must be found for ownership to be resolved.
+	 */
+	private static final int GENERATED_LEAF_MARGIN = 6;
 
 	/** general purpose mutable pos. */
 	private final BlockPos.MutableBlockPos searchPos = new BlockPos.MutableBlockPos();
+	private final BlockPos.MutableBlockPos updatePos = new BlockPos.MutableBlockPos();
 
-	/** iterator traversed during pre-clearing. */
-	private ObjectIterator<Entry> visitIterator = null;
+	/** Positions cleared without neighbor updates, waiting for {@link #flushBlockUpdates(ServerLevel)}. */
+	private final LongOpenHashSet removed = new LongOpenHashSet();
+
+	/** Cleared positions with doomed neighbors that weren't updated, in case the job stops before clearing them. */
+	private final LongOpenHashSet deferredUpdates = new LongOpenHashSet();
+
+	/** True once every found block has been through clearing - see {@link #doLeafClearing(ServerLevel)}. */
+	private boolean clearingFinished = false;
+
+	private static final Direction[] FACES = Direction.values();
+
+	/** serves block state lookups for search and clearing. */
+	private final SectionCache sections = new SectionCache();
+
+	/** Used to iterate {@link #leafSeeds} when seeding leaf search. */
+	private int leafSeedIndex = 0;
+
+	/** Next leaf search operation while logs are being cleared, or null if not streaming. */
+	private Operation streamLeafOp = null;
 
 	private final TreeJob job;
 
@@ -130,6 +209,7 @@ public class TreeCutter {
 	private int breakBudget = 0;
 
 	private int xStart = 0;
+	private int yStart = 0;
 	private int zStart = 0;
 	// all below are used for center-of-mass and fall velocity handling
 	private final int LOG_FACTOR = 5; // logs worth this much more than leaves
@@ -142,6 +222,59 @@ public class TreeCutter {
 
 	private ProtectionTracker protectionTracker;
 
+	/** Shared with other jobs in the same world. */
+	private DoomIndex doomIndex;
+
+	private TreeRegistry treeRegistry;
+
+	/** Tree recorded when grown, if the start log has one. Cleared if search finds different logs. */
+	private TreeRegistry.Tree recordedTree = null;
+
+	/** Log of {@link #recordedTree} already removed when the job started - usually the one below the start. */
+	private long recordedMissingLog = Long.MAX_VALUE;
+
+	/** True if recorded leaves touch leaves that weren't recorded - see {@link #recordedLeaves(Level)}. */
+	private boolean recordedLeavesShared = false;
+
+	/** True once doomed positions have been added to {@link #doomIndex}. */
+	private boolean doomRegistered = false;
+
+	/** protected positions as seen by an off-thread search, null otherwise. */
+	private LongSet protectedSnapshot = null;
+
+	/** how many logs can be broken - computed at start. */
+	private int logLimit;
+
+	/** Logs found by forward search at each depth. Grows as needed. */
+	private int[] logsAtDepth = new int[128];
+
+	/** Total of {@link #logsAtDepth}. */
+	private int logsFound = 0;
+
+	/**
+	 * Once {@link #logLimit} logs are found, the smallest depth that includes
+	 * at least that many logs. Deeper logs can't be among those broken, so
+	 * diagonal logs beyond this depth are not expanded. Support below logs
+	 * within the bound is still checked, and direct search is not bounded
+	 * because any support it finds keeps the whole tree standing.
+	 */
+	private int depthBound = Integer.MAX_VALUE;
+
+	/** Non-null while search phases are running off-thread. */
+	private CompletableFuture<Void> searchTask = null;
+
+	/** Operation reached by off-thread search. Only read after task completes. */
+	private Operation searchResult = Operation.COMPLETE;
+
+	/** Position that off-thread search could not read, or Long.MAX_VALUE if none. */
+	private long searchMissingPos = Long.MAX_VALUE;
+
+	/** Operations and time used by the last off-thread search - for metrics. */
+	private int searchOps;
+	private long searchNanos;
+
+	private int queuePeak;
+
 	// Numeric order here drives priority queue
 
 	/** used in queue but not in visits. */
@@ -153,9 +286,8 @@ public class TreeCutter {
 	private static final int SEARCH_IGNORE = 4;
 	private static final int SEARCH_SUPPORT = 5;
 	private static final int SEARCH_LEAF = 6;
-
-	/** default map return value - prevents ambiguity. */
-	private static final int SEARCH_NOT_PRESENT = Integer.MAX_VALUE;
+	/** Leaf claimed by a doomed log during ownership search. Becomes {@link #SEARCH_LEAF} again after. */
+	private static final int SEARCH_LEAF_OWNED = 7;
 
 	//	 All below are for compact representation of reverse search space
 	/**
@@ -195,37 +327,44 @@ public class TreeCutter {
 
 	TreeCutter(TreeJob job) {
 		this.job = job;
-		forwardVisits.defaultReturnValue(SEARCH_NOT_PRESENT);
 	}
 
+	/**
+	 * Packs a position relative to the job start with a depth and type so that
+	 * natural ordering is by type, then depth, then position. X and Z use 13 bits,
+	 * Y 12 bits, depth 16 bits and type 9 bits - the sign bit is never set.
+	 * Type holds distances for some searches so is wider than the SEARCH_ constants need.
+	 */
 	private long packedVisit(long packedPos, int depth, int type) {
 		final int x = BlockPos.getX(packedPos);
 		final int y = BlockPos.getY(packedPos);
 		final int z = BlockPos.getZ(packedPos);
 
-		assert Math.abs(x - xStart) <= 255;
-		assert Math.abs(z - zStart) <= 255;
+		assert Math.abs(x - xStart) <= 4095;
+		assert Math.abs(y - yStart) <= 2047;
+		assert Math.abs(z - zStart) <= 4095;
+		assert depth >= 0 && depth <= MAX_DEPTH;
+		assert type >= 0 && type < 512;
 
-		final int px = (x + 255 - xStart) & 511;
-		final int py = y & 0xFF;
-		final int pz = (z + 255 - zStart) & 511;
+		final long px = (x + 4095 - xStart) & 0x1FFF;
+		final long py = (y + 2047 - yStart) & 0xFFF;
+		final long pz = (z + 4095 - zStart) & 0x1FFF;
 
-		return px | (py << 9) | (pz << 17) | ((long) depth << 26) | ((long) type << 34);
+		return px | (py << 13) | (pz << 25) | ((long) depth << 38) | ((long) type << 54);
 	}
 
 	private int getVisitPackedDepth(long visit) {
-		return (int) ((visit >>> 26) & 0xFF);
+		return (int) ((visit >>> 38) & 0xFFFF);
 	}
 
 	private int getVisitPackedType(long visit) {
-		return (int) ((visit >>> 34) & 0xFF);
+		return (int) ((visit >>> 54) & 0x1FF);
 	}
 
 	private long getVisitPackedPos(long visit) {
-		final int v = (int) visit;
-		final int x = (v & 511) - 255 + xStart;
-		final int y = (v >> 9) & 0xFF;
-		final int z = ((v >> 17) & 511) - 255 + zStart;
+		final int x = (int) (visit & 0x1FFF) - 4095 + xStart;
+		final int y = (int) ((visit >>> 13) & 0xFFF) - 2047 + yStart;
+		final int z = (int) ((visit >>> 25) & 0x1FFF) - 4095 + zStart;
 
 		return BlockPos.asLong(x, y, z);
 	}
@@ -237,50 +376,336 @@ public class TreeCutter {
 		return new BlockPos(x, y, z);
 	}
 
-	public void reset(ProtectionTracker protectionTracker) {
+	/** Call when the job returns to the pool, so that idle jobs don't hold visit storage. */
+	void release() {
+		forwardVisits.release();
+		leafVisits.release();
+		recordedTree = null;
+	}
+
+	public void reset(ProtectionTracker protectionTracker, DoomIndex doomIndex, TreeRegistry treeRegistry) {
 		dropHandler.reset(job);
-		forwardVisits.clear();
-		leafVisits.clear();
+		forwardVisits.reset(job.startPos());
+		leafVisits.reset(job.startPos());
 		supports.clear();
 		doomed.clear();
+		removed.clear();
+		deferredUpdates.clear();
+		clearingFinished = false;
 		toVisit.clear();
 		logs.clear();
+		leafSeeds.clear();
 		fallingLogStates.clear();
 		leaves.clear();
+		leafClearIndex = 0;
+		foreignLogs.clear();
+		leafSearchVolume = 0;
 		fx.reset();
 		xSum = 0;
 		zSum = 0;
 		xStart = BlockPos.getX(job.startPos());
+		yStart = BlockPos.getY(job.startPos());
 		zStart = BlockPos.getZ(job.startPos());
-		visitIterator = null;
+		sections.reset(job.startPos());
+		leafSeedIndex = 0;
+		streamLeafOp = null;
+		verifiedSupport = Long.MAX_VALUE;
+		checkProbe = false;
+		probeFoundSupport = false;
+		searchFoundSupport = false;
+		parkedChunk = Long.MAX_VALUE;
+		Arrays.fill(logsAtDepth, 0);
+		logsFound = 0;
+		depthBound = Integer.MAX_VALUE;
 		operation = opStartSearch;
 		fallingLogIndex = 0;
 		this.protectionTracker = protectionTracker;
+		this.doomIndex = doomIndex;
+		this.treeRegistry = treeRegistry;
+		recordedTree = null;
+		recordedMissingLog = Long.MAX_VALUE;
+		recordedLeavesShared = false;
+		doomRegistered = false;
+		protectedSnapshot = null;
+		searchTask = null;
+		searchResult = Operation.COMPLETE;
+		searchMissingPos = Long.MAX_VALUE;
+		queuePeak = 0;
 	}
 
 	public void prepareForTick(ServerLevel world) {
-		final int max = Configurator.maxBreaksPerSecond;
+		// chunks can unload between ticks
+		loadedChunk = Long.MAX_VALUE;
+
+		final int max = BreakRateController.breaksPerSecond();
 		breakBudget += max;
 		breakBudget = breakBudget > max ? max : breakBudget;
+
+		// sections are in use by search thread
+		if (!sections.isFrozen()) {
+			sections.prepareForTick(world);
+		}
+
 		fx.prepareForTick();
 	}
 
 	public void tick(ServerLevel world) {
 		// if we have to end early, at least spawn drops
 		if (job.isCancelled(world) || job.isTimedOut()) {
+			if (Configurator.enableMetrics) {
+				if (job.isTimedOut()) {
+					JobMetrics.recordTimedOut();
+				} else {
+					JobMetrics.recordCancelled();
+				}
+			}
+
 			dropHandler.spawnDrops(world);
 			operation = Operation.COMPLETE;
+		} else if (Configurator.enableMetrics) {
+			tickWithMetrics(world);
 		} else {
 			int i = 0;
 
 			do {
+				if (parkIfUnloaded(world)) {
+					break;
+				}
+
 				operation = operation.apply(world);
 			} while (++i <= 8 && canRun() && operation != Operation.COMPLETE);
 		}
+
+		// leaf distances must not change while leaves are still being found
+		if (streamLeafOp == null || operation == Operation.COMPLETE) {
+			flushBlockUpdates(world);
+		}
+
+		if (operation == Operation.COMPLETE && doomRegistered) {
+			doomIndex.removeAll(doomed);
+			doomRegistered = false;
+		}
+	}
+
+	/** Same as normal tick but times each operation. Kept separate so the normal path has no overhead. */
+	private void tickWithMetrics(ServerLevel world) {
+		int i = 0;
+
+		do {
+			if (parkIfUnloaded(world)) {
+				break;
+			}
+
+			final int phase = phaseOf(operation);
+			final long start = System.nanoTime();
+			operation = operation.apply(world);
+			JobMetrics.recordOp(phase, System.nanoTime() - start);
+			queuePeak = Math.max(queuePeak, toVisit.size());
+		} while (++i <= 8 && canRun() && operation != Operation.COMPLETE);
 	}
 
 	public boolean canRun() {
-		return breakBudget > 0;
+		return breakBudget > 0 && parkedChunk == Long.MAX_VALUE && (searchTask == null || searchTask.isDone());
+	}
+
+	/**
+	 * Checks that the chunk the next operation reads first is loaded. If not,
+	 * records it in {@link #parkedChunk} and returns true. The job can't run
+	 * again until {@link WorldJobs} sees the chunk loaded and calls {@link #unpark()}.
+	 * Operations that read other positions check those themselves.
+	 */
+	private boolean parkIfUnloaded(ServerLevel world) {
+		final Operation op = operation;
+		return isUnloaded(world, readPos(op)) || (op == opStreamClearing && isUnloaded(world, readPos(streamLeafOp)));
+	}
+
+	/** Position the given operation reads first, or Long.MAX_VALUE if none. */
+	private long readPos(Operation op) {
+		if (op == opForwardSearch || op == opFindLeaves || op == opRecordedLeaves) {
+			return toVisit.isEmpty() ? Long.MAX_VALUE : getVisitPackedPos(toVisit.firstLong());
+		} else if (op == opStartSearch || op == opAwaitSearch) {
+			return job.startPos();
+		} else if (op == opResumeSearch) {
+			return searchMissingPos;
+		} else if (op == opDoLeafClearing) {
+			return leafClearIndex < leaves.size() ? leaves.getLong(leafClearIndex) : Long.MAX_VALUE;
+		} else if (op == opDoLogClearing || op == opStreamClearing) {
+			return logs.isEmpty() ? Long.MAX_VALUE : logs.topLong();
+		} else if (op == opDoLogDropping1) {
+			return fallingLogIndex < logs.size() ? logs.getLong(fallingLogIndex) : Long.MAX_VALUE;
+		} else {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	private boolean isUnloaded(ServerLevel world, long packedPos) {
+		if (packedPos == Long.MAX_VALUE) {
+			return false;
+		}
+
+		final long chunk = ChunkPos.asLong(SectionPos.blockToSectionCoord(BlockPos.getX(packedPos)), SectionPos.blockToSectionCoord(BlockPos.getZ(packedPos)));
+
+		if (chunk == loadedChunk) {
+			return false;
+		}
+
+		// checked directly because sections may still be frozen here
+		if (world.getChunkSource().getChunkNow(ChunkPos.getX(chunk), ChunkPos.getZ(chunk)) != null) {
+			loadedChunk = chunk;
+			return false;
+		}
+
+		parkedChunk = chunk;
+		return true;
+	}
+
+	/** Packed chunk position this job is waiting for, or Long.MAX_VALUE if not parked. */
+	long parkedChunk() {
+		return parkedChunk;
+	}
+
+	void unpark() {
+		parkedChunk = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Takes over the search for a new start position if it is already part of
+	 * the structure being searched, or is the removed log below such a position.
+	 * Only possible during forward search. Returns true if coalesced.
+	 * If the removed block had been visited as a log, the search restarts
+	 * with the new position as another start.
+	 */
+	boolean tryCoalesce(long packedPos) {
+		if (operation != opForwardSearch) {
+			return false;
+		}
+
+		final long below = BlockPos.offset(packedPos, 0, -1, 0);
+		final int belowType = forwardVisits.getType(below);
+
+		if (belowType == VisitGrid.NOT_PRESENT || belowType == SEARCH_IGNORE) {
+			if (!isLogVisit(forwardVisits.getType(packedPos))) {
+				return false;
+			}
+
+			// removed block can no longer be found as support
+			forwardVisits.put(below, SEARCH_IGNORE);
+			return true;
+		}
+
+		if (!isLogVisit(belowType)) {
+			// support already recorded for reverse search is no longer valid
+			return false;
+		}
+
+		// Removed block was visited as a log and may already have carried support
+		// to other visits, so nothing found so far can be trusted.
+		job.extraStarts().add(packedPos);
+		restartSearch();
+		return true;
+	}
+
+	/** Discards forward search progress and seeds again from all start positions. Log type and limit are kept. */
+	private void restartSearch() {
+		forwardVisits.reset(job.startPos());
+		toVisit.clear();
+		supports.clear();
+		Arrays.fill(logsAtDepth, 0);
+		logsFound = 0;
+		depthBound = Integer.MAX_VALUE;
+
+		// start log may be the one just removed
+		if (sections.isLoaded(job.startPos())) {
+			seedSearch(job.startPos());
+		}
+
+		final LongArrayList extraStarts = job.extraStarts();
+		final int limit = extraStarts.size();
+
+		for (int i = 0; i < limit; ++i) {
+			final long extraStart = extraStarts.getLong(i);
+
+			if (sections.isLoaded(extraStart)) {
+				seedSearch(extraStart);
+			}
+		}
+
+		if (toVisit.isEmpty()) {
+			operation = supports.isEmpty() ? opPreProcessLogs1 : opReverseSearch;
+		}
+	}
+
+	private static boolean isLogVisit(int type) {
+		return type == SEARCH_LOG || type == SEARCH_LOG_DIAGONAL;
+	}
+
+	/** Names of operation phases, for benchmarks and metrics. */
+	static final String[] PHASES = {"start", "forward", "reverse", "logs", "leaves", "async", "preclear", "leafclear", "logclear", "falling"};
+
+	/** Phases with a lower index than this are search phases. */
+	static final int SEARCH_PHASE_COUNT = 5;
+
+	private static final int PHASE_ASYNC = 5;
+
+	/** Index into {@link #PHASES} for the given operation, or -1 if complete. */
+	private int phaseOf(Operation op) {
+		if (op == opStartSearch) {
+			return 0;
+		} else if (op == opForwardSearch) {
+			return 1;
+		} else if (op == opReverseSearch) {
+			return 2;
+		} else if (op == opPreProcessLogs1 || op == opPreProcessLogs2) {
+			return 3;
+		} else if (op == opFindLeavesPre || op == opFindLeaves || op == opRecordedLeavesPre || op == opRecordedLeaves || op == opResolveLeavesPre || op == opResolveLeaves) {
+			return 4;
+		} else if (op == opAwaitSearch || op == opResumeSearch) {
+			return PHASE_ASYNC;
+		} else if (op == opDoPreClearing || op == opStartStreaming) {
+			return 6;
+		} else if (op == opDoLeafClearing) {
+			return 7;
+		} else if (op == opDoLogClearing || op == opStreamClearing) {
+			return 8;
+		} else if (op == opDoLogDropping1 || op == opDoLogDropping2) {
+			return 9;
+		} else {
+			return -1;
+		}
+	}
+
+	/** Index into {@link #PHASES} for the current operation, or -1 once search is finished. */
+	int searchPhase() {
+		final int phase = phaseOf(operation);
+		return phase < SEARCH_PHASE_COUNT ? phase : -1;
+	}
+
+	/** Largest visit queue seen - only tracked when metrics are enabled. */
+	int queuePeak() {
+		return queuePeak;
+	}
+
+	/** Applies the current operation once, ignoring limits. For benchmarks. */
+	void step(ServerLevel world) {
+		operation = operation.apply(world);
+	}
+
+	/** Support position proven by this job that {@link SupportCache} can keep, or Long.MAX_VALUE. */
+	long verifiedSupport() {
+		return verifiedSupport;
+	}
+
+	/** True if the probe found support that forward search did not - see {@link #checkProbe}. */
+	boolean probeDisagrees() {
+		return probeFoundSupport && !searchFoundSupport;
+	}
+
+	SectionCache sections() {
+		return sections;
+	}
+
+	int logCount() {
+		return logs.size();
 	}
 
 	public boolean isComplete() {
@@ -289,53 +714,273 @@ public class TreeCutter {
 
 	private final Operation opStartSearch = this::startSearch;
 
-	private Operation startSearch(Level world) {
-		final long packedPos = job.startPos();
+	private Operation startSearch(ServerLevel world) {
+		logMask = 0;
+
+		if (!seedSearch(job.startPos())) {
+			return Operation.COMPLETE;
+		}
+
+		// starts merged into this job before it ran - see WorldJobs
+		final LongArrayList extraStarts = job.extraStarts();
+		final int limit = extraStarts.size();
+
+		for (int i = 0; i < limit; ++i) {
+			final long extraStart = extraStarts.getLong(i);
+
+			if (sections.isLoaded(extraStart)) {
+				seedSearch(extraStart);
+			}
+		}
+
+		// depends on player and tool, so must be known before search goes off-thread
+		logLimit = computeLogLimit(world);
+
+		// nothing can be broken, so no reason to search
+		if (logLimit <= 0) {
+			return Operation.COMPLETE;
+		}
+
+		// jobs not started by a player are usually neighbor changes on trees that are still supported
+		if (job.player() == null && probeSupport()) {
+			probeFoundSupport = true;
+
+			if (!checkProbe) {
+				return Operation.COMPLETE;
+			}
+		}
+
+		// only a hint - checked against logs found by search before use
+		recordedTree = treeRegistry.find(job.startPos());
+		recordedMissingLog = recordedTree == null ? Long.MAX_VALUE : recordedTree.missingLog();
+
+		// already frozen if sections were provided by caller - see SearchBenchmark
+		if (Configurator.asyncSearch && !world.isDebug() && !sections.isFrozen()) {
+			sections.freeze(world, job.startPos());
+			protectedSnapshot = protectionTracker.snapshot();
+			startAsyncSearch(opForwardSearch);
+			return opAwaitSearch;
+		} else {
+			return opForwardSearch;
+		}
+	}
+
+	/**
+	 * Starts forward search from a position where the block below was removed.
+	 * The first call determines which kind of log is searched for.
+	 * Returns false if the position is not a searchable log.
+	 */
+	private boolean seedSearch(long packedPos) {
 		searchPos.set(packedPos);
-		final BlockState state = world.getBlockState(searchPos);
+		final BlockState state = sections.getBlockState(searchPos);
 
 		final int logType = TreeBlock.getType(state);
 
-		if ((logType & TreeBlock.LOG_MASK) != 0 && !protectionTracker.isProtected(packedPos)) {
+		if ((logType & TreeBlock.LOG_MASK) == 0 || protectionTracker.isProtected(packedPos)) {
+			return false;
+		}
+
+		if (logMask == 0) {
 			logMask = logType == TreeBlock.LOG ? TreeBlock.LOG : (Configurator.breakFungalLeaves ? TreeBlock.FUNGUS_MASK : TreeBlock.FUNGUS_LOG);
-			//            this.startState = state;
-			//            this.startBlock = state.getBlock();
-
-			// don't need to mix in depth because will be zero
-			forwardVisits.put(packedPos, SEARCH_LOG);
-
-			// shoudln't really be necessary, but reflect the
-			// reason we are doing this is the block below is (or was) non-supporting
-			forwardVisits.put(BlockPos.offset(packedPos, 0, -1, 0), SEARCH_IGNORE);
-
-			enqueForwardIfViable(BlockPos.offset(packedPos, 0, 1, 0), SEARCH_LOG, 0);
-			enqueForwardIfViable(BlockPos.offset(packedPos, -1, 0, 0), SEARCH_LOG, 0);
-			enqueForwardIfViable(BlockPos.offset(packedPos, 1, 0, 0), SEARCH_LOG, 0);
-			enqueForwardIfViable(BlockPos.offset(packedPos, 0, 0, -1), SEARCH_LOG, 0);
-			enqueForwardIfViable(BlockPos.offset(packedPos, 0, 0, 1), SEARCH_LOG, 0);
-
-			enqueForwardIfViable(BlockPos.offset(packedPos, -1, 0, -1), SEARCH_LOG_DIAGONAL, 0);
-			enqueForwardIfViable(BlockPos.offset(packedPos, -1, 0, 1), SEARCH_LOG_DIAGONAL, 0);
-			enqueForwardIfViable(BlockPos.offset(packedPos, 1, 0, -1), SEARCH_LOG_DIAGONAL, 0);
-			enqueForwardIfViable(BlockPos.offset(packedPos, 1, 0, 1), SEARCH_LOG_DIAGONAL, 0);
-
-			enqueForwardIfViable(BlockPos.offset(packedPos, -1, 1, -1), SEARCH_LOG_DIAGONAL, 0);
-			enqueForwardIfViable(BlockPos.offset(packedPos, -1, 1, 0), SEARCH_LOG_DIAGONAL, 0);
-			enqueForwardIfViable(BlockPos.offset(packedPos, -1, 1, 1), SEARCH_LOG_DIAGONAL, 0);
-			enqueForwardIfViable(BlockPos.offset(packedPos, 0, 1, -1), SEARCH_LOG_DIAGONAL, 0);
-			enqueForwardIfViable(BlockPos.offset(packedPos, 0, 1, 1), SEARCH_LOG_DIAGONAL, 0);
-			enqueForwardIfViable(BlockPos.offset(packedPos, 1, 1, -1), SEARCH_LOG_DIAGONAL, 0);
-			enqueForwardIfViable(BlockPos.offset(packedPos, 1, 1, 0), SEARCH_LOG_DIAGONAL, 0);
-			enqueForwardIfViable(BlockPos.offset(packedPos, 1, 1, 1), SEARCH_LOG_DIAGONAL, 0);
-			return opForwardSearch;
-		} else {
+		} else if ((logType & logMask) == 0) {
+			return false;
+		}
+
+		//            this.startState = state;
+		//            this.startBlock = state.getBlock();
+
+		// don't need to mix in depth because will be zero
+		forwardVisits.put(packedPos, SEARCH_LOG, 0);
+
+		// shoudln't really be necessary, but reflect the
+		// reason we are doing this is the block below is (or was) non-supporting
+		forwardVisits.put(BlockPos.offset(packedPos, 0, -1, 0), SEARCH_IGNORE);
+
+		enqueForwardIfViable(BlockPos.offset(packedPos, 0, 1, 0), SEARCH_LOG, 0);
+		enqueForwardIfViable(BlockPos.offset(packedPos, -1, 0, 0), SEARCH_LOG, 0);
+		enqueForwardIfViable(BlockPos.offset(packedPos, 1, 0, 0), SEARCH_LOG, 0);
+		enqueForwardIfViable(BlockPos.offset(packedPos, 0, 0, -1), SEARCH_LOG, 0);
+		enqueForwardIfViable(BlockPos.offset(packedPos, 0, 0, 1), SEARCH_LOG, 0);
+
+		enqueForwardIfViable(BlockPos.offset(packedPos, -1, 0, -1), SEARCH_LOG_DIAGONAL, 0);
+		enqueForwardIfViable(BlockPos.offset(packedPos, -1, 0, 1), SEARCH_LOG_DIAGONAL, 0);
+		enqueForwardIfViable(BlockPos.offset(packedPos, 1, 0, -1), SEARCH_LOG_DIAGONAL, 0);
+		enqueForwardIfViable(BlockPos.offset(packedPos, 1, 0, 1), SEARCH_LOG_DIAGONAL, 0);
+
+		enqueForwardIfViable(BlockPos.offset(packedPos, -1, 1, -1), SEARCH_LOG_DIAGONAL, 0);
+		enqueForwardIfViable(BlockPos.offset(packedPos, -1, 1, 0), SEARCH_LOG_DIAGONAL, 0);
+		enqueForwardIfViable(BlockPos.offset(packedPos, -1, 1, 1), SEARCH_LOG_DIAGONAL, 0);
+		enqueForwardIfViable(BlockPos.offset(packedPos, 0, 1, -1), SEARCH_LOG_DIAGONAL, 0);
+		enqueForwardIfViable(BlockPos.offset(packedPos, 0, 1, 1), SEARCH_LOG_DIAGONAL, 0);
+		enqueForwardIfViable(BlockPos.offset(packedPos, 1, 1, -1), SEARCH_LOG_DIAGONAL, 0);
+		enqueForwardIfViable(BlockPos.offset(packedPos, 1, 1, 0), SEARCH_LOG_DIAGONAL, 0);
+		enqueForwardIfViable(BlockPos.offset(packedPos, 1, 1, 1), SEARCH_LOG_DIAGONAL, 0);
+
+		return true;
+	}
+
+	/**
+	 * Looks for support by following directly connected logs toward the
+	 * ground, always expanding the lowest log found so far. Finds support
+	 * for most standing trees after a few dozen block reads, where forward
+	 * search would fill the whole tree first. Gives up after
+	 * {@link #MAX_PROBE_STEPS} logs, and forward search then decides.
+	 *
+	 * <p>Support found here is the same as a directly connected support found
+	 * by forward search, which also ends the search with the tree standing.
+	 * Like forward search, leaves are never support. {@link SearchBenchmark}
+	 * checks that the two agree.
+	 * Uses {@link #leafVisits} for visited positions, which is cleared after.
+	 * Sets {@link #verifiedSupport} for {@link SupportCache} when possible.
+	 */
+	private boolean probeSupport() {
+		final LongHeapPriorityQueue queue = probeQueue;
+		final VisitGrid visits = leafVisits;
+		final long startPos = job.startPos();
+		final int yBase = BlockPos.getY(startPos) - MAX_PROBE_STEPS;
+		final int chunkX = SectionPos.blockToSectionCoord(BlockPos.getX(startPos));
+		final int chunkZ = SectionPos.blockToSectionCoord(BlockPos.getZ(startPos));
+		boolean oneChunk = true;
+
+		// removed blocks below starts can't be support
+		visits.put(BlockPos.offset(startPos, 0, -1, 0), SEARCH_IGNORE);
+		final LongArrayList extraStarts = job.extraStarts();
+		final int limit = extraStarts.size();
+
+		for (int i = 0; i < limit; ++i) {
+			visits.put(BlockPos.offset(extraStarts.getLong(i), 0, -1, 0), SEARCH_IGNORE);
+		}
+
+		visits.put(startPos, SEARCH_LOG);
+		queue.enqueue(packedVisit(startPos, 0, BlockPos.getY(startPos) - yBase));
+		boolean result = false;
+		int steps = 0;
+
+		while (!result && !queue.isEmpty() && ++steps <= MAX_PROBE_STEPS) {
+			final long packedPos = getVisitPackedPos(queue.dequeueLong());
+
+			for (final Direction face : FACES) {
+				final long nextPos = BlockPos.offset(packedPos, face);
+
+				if (visits.contains(nextPos) || protectionTracker.isProtected(nextPos) || !sections.isLoaded(nextPos)) {
+					continue;
+				}
+
+				final BlockState state = sections.getBlockState(searchPos.set(nextPos));
+
+				if ((TreeBlock.getType(state) & logMask) != 0) {
+					visits.put(nextPos, SEARCH_LOG);
+					queue.enqueue(packedVisit(nextPos, 0, Math.max(0, BlockPos.getY(nextPos) - yBase)));
+					oneChunk &= SectionPos.blockToSectionCoord(BlockPos.getX(nextPos)) == chunkX && SectionPos.blockToSectionCoord(BlockPos.getZ(nextPos)) == chunkZ;
+				} else {
+					visits.put(nextPos, SEARCH_IGNORE);
+
+					if (face == Direction.DOWN && !TreeBlockState.isLeaf(state) && TreeBlockState.hasFullTop(state, sections, searchPos)) {
+						result = true;
+
+						if (oneChunk) {
+							verifiedSupport = nextPos;
+						}
+
+						break;
+					}
+				}
+			}
+		}
+
+		queue.clear();
+		visits.reset(startPos);
+		return result;
+	}
+
+	private boolean isProtected(long packedPos) {
+		final LongSet snapshot = protectedSnapshot;
+		return snapshot == null ? protectionTracker.isProtected(packedPos) : snapshot.contains(packedPos);
+	}
+
+	private void startAsyncSearch(Operation op) {
+		searchMissingPos = Long.MAX_VALUE;
+		searchTask = CompletableFuture.runAsync(() -> runSearch(op), Util.backgroundExecutor());
+	}
+
+	/**
+	 * Runs search phases until clearing can start, or until the next visit
+	 * needs a section that wasn't captured. Runs off-thread.
+	 */
+	private void runSearch(Operation op) {
+		final long start = System.nanoTime();
+		int ops = 0;
+
+		try {
+			while (op != opDoPreClearing && op != Operation.COMPLETE) {
+				if ((op == opForwardSearch || op == opFindLeaves || op == opRecordedLeaves) && !toVisit.isEmpty()) {
+					final long packedPos = getVisitPackedPos(toVisit.firstLong());
+
+					if (!sections.hasSection(packedPos)) {
+						searchMissingPos = packedPos;
+						break;
+					}
+				}
+
+				op = op.apply(null);
+				++ops;
+				queuePeak = Math.max(queuePeak, toVisit.size());
+			}
+		} catch (final Exception e) {
+			TreesDoNotFloat.LOG.error("Unexpected error during tree search. Tree will not be broken.", e);
+			op = Operation.COMPLETE;
+		}
+
+		searchOps = ops;
+		searchNanos = System.nanoTime() - start;
+		searchResult = op;
+	}
+
+	private final Operation opAwaitSearch = this::awaitSearch;
+
+	private final Operation opResumeSearch = this::resumeSearch;
+
+	/** Continues off-thread search once the section it stopped at is loaded - see {@link #parkIfUnloaded}. */
+	private Operation resumeSearch(ServerLevel world) {
+		sections.captureAround(searchMissingPos);
+		startAsyncSearch(searchResult);
+		return opAwaitSearch;
+	}
+
+	/** Runs on server thread after off-thread search completes - see {@link #canRun()}. */
+	private Operation awaitSearch(ServerLevel world) {
+		assert searchTask.isDone();
+		searchTask = null;
+
+		if (Configurator.enableMetrics) {
+			JobMetrics.recordBulk(PHASE_ASYNC, searchOps, searchNanos);
+		}
+
+		if (searchMissingPos != Long.MAX_VALUE) {
+			return opResumeSearch;
+		}
+
+		protectedSnapshot = null;
+		sections.thaw(world);
+
+		// world may have changed while we searched - if the starting log is gone
+		// then whatever happened to the tree has already been handled by something else
+		if ((TreeBlock.getType(sections.getBlockState(searchPos.set(job.startPos()))) & logMask) == 0) {
 			return Operation.COMPLETE;
 		}
+
+		// remaining operations check each block before breaking it
+		return searchResult;
 	}
 
 	private final Operation opForwardSearch = this::forwardSearch;
 
 	private Operation forwardSearch(Level world) {
+		// can't tell what is supported without a complete search, so leave the tree as it is
+		if (forwardVisits.isFull()) {
+			return Operation.COMPLETE;
+		}
+
 		final long toVisit = this.toVisit.dequeueLong();
 
 		final long packedPos = getVisitPackedPos(toVisit);
@@ -346,13 +991,21 @@ public class TreeCutter {
 
 		final int newDepth = getVisitPackedDepth(toVisit) + 1;
 
-		if (!forwardVisits.containsKey(packedPos) && !this.protectionTracker.isProtected(packedPos)) {
-			final BlockState state = world.getBlockState(searchPos);
+		if (!forwardVisits.contains(packedPos) && !isProtected(packedPos)) {
+			final BlockState state = sections.getBlockState(searchPos);
 
 			if ((TreeBlock.getType(state) & logMask) != 0) {
 				assert searchType == SEARCH_LOG_DOWN || searchType == SEARCH_LOG || searchType == SEARCH_LOG_DIAGONAL || searchType == SEARCH_LOG_DIAGONAL_DOWN;
 				final boolean diagonal = searchType == SEARCH_LOG_DIAGONAL || searchType == SEARCH_LOG_DIAGONAL_DOWN;
-				forwardVisits.put(packedPos, (diagonal ? SEARCH_LOG_DIAGONAL : SEARCH_LOG) | (newDepth << VISIT_DEPTH_SHIFT));
+
+				// Branch continues past the logs that could be broken - not expanded.
+				// Not marked visited either, so a shallower path can still reach it.
+				if (diagonal && newDepth > depthBound) {
+					return nextForwardOp();
+				}
+
+				forwardVisits.put(packedPos, diagonal ? SEARCH_LOG_DIAGONAL : SEARCH_LOG, newDepth);
+				countLog(newDepth);
 
 				if (diagonal) {
 					enqueForwardIfViable(BlockPos.offset(packedPos, 0, -1, 0), SEARCH_LOG_DIAGONAL_DOWN, newDepth);
@@ -390,13 +1043,14 @@ public class TreeCutter {
 				enqueForwardIfViable(BlockPos.offset(packedPos, 1, -1, -1), SEARCH_LOG_DIAGONAL, newDepth);
 				enqueForwardIfViable(BlockPos.offset(packedPos, 1, -1, 0), SEARCH_LOG_DIAGONAL, newDepth);
 				enqueForwardIfViable(BlockPos.offset(packedPos, 1, -1, 1), SEARCH_LOG_DIAGONAL, newDepth);
-			} else if (state.is(BlockTags.LEAVES)) {
+			} else if (TreeBlockState.isLeaf(state)) {
 				forwardVisits.put(packedPos, SEARCH_IGNORE);
 			} else {
 				if (searchType == SEARCH_LOG_DOWN) {
 					// if found a supporting block for a directly connected log
 					// then tree remains standing
-					if (Block.isFaceFull(state.getCollisionShape(world, searchPos, CollisionContext.empty()), Direction.UP)) {
+					if (TreeBlockState.hasFullTop(state, sections, searchPos)) {
+						searchFoundSupport = true;
 						return Operation.COMPLETE;
 					} else {
 						forwardVisits.put(packedPos, SEARCH_IGNORE);
@@ -404,7 +1058,7 @@ public class TreeCutter {
 				} else if (searchType == SEARCH_LOG_DIAGONAL_DOWN) {
 					// if found a supporting block for a diagonally connected log
 					// then record it for later reverse search
-					if (Block.isFaceFull(state.getCollisionShape(world, searchPos, CollisionContext.empty()), Direction.UP)) {
+					if (TreeBlockState.hasFullTop(state, sections, searchPos)) {
 						forwardVisits.put(packedPos, SEARCH_SUPPORT);
 						supports.enqueue(packedVisit(BlockPos.offset(packedPos, 0, 1, 0), 0, REVERSE_LOG));
 					} else {
@@ -416,7 +1070,11 @@ public class TreeCutter {
 			}
 		}
 
-		if (this.toVisit.isEmpty()) {
+		return nextForwardOp();
+	}
+
+	private Operation nextForwardOp() {
+		if (toVisit.isEmpty()) {
 			if (supports.isEmpty()) {
 				return opPreProcessLogs1;
 			} else {
@@ -427,12 +1085,37 @@ public class TreeCutter {
 		}
 	}
 
+	/** Updates {@link #depthBound} for a newly found log. */
+	private void countLog(int depth) {
+		if (depth >= logsAtDepth.length) {
+			logsAtDepth = Arrays.copyOf(logsAtDepth, Math.max(depth + 1, logsAtDepth.length * 2));
+		}
+
+		++logsAtDepth[depth];
+
+		if (++logsFound >= logLimit && depth <= depthBound) {
+			int total = 0;
+			int d = 0;
+
+			while ((total += logsAtDepth[d]) < logLimit) {
+				++d;
+			}
+
+			depthBound = d;
+		}
+	}
+
 	private void enqueForwardIfViable(long packedPos, int type, int depth) {
-		if (forwardVisits.containsKey(packedPos)) {
+		if (forwardVisits.contains(packedPos)) {
 			return;
 		}
 
-		if (depth >= 127 || depth < 0) {
+		if (depth >= MAX_DEPTH || depth < 0) {
+			return;
+		}
+
+		// only expands logs, which would be past the bound - see forwardSearch
+		if (type == SEARCH_LOG_DIAGONAL && depth >= depthBound) {
 			return;
 		}
 
@@ -445,7 +1128,7 @@ public class TreeCutter {
 		// must be a log at search position for us to do anything
 		// log may have been removed by an earlier iteration
 		// never remove directly connected logs
-		return (forwardVisits.get(packedPos) & VISIT_TYPE_MASK) == SEARCH_LOG_DIAGONAL;
+		return forwardVisits.getType(packedPos) == SEARCH_LOG_DIAGONAL;
 	}
 
 	/**
@@ -517,21 +1200,20 @@ public class TreeCutter {
 
 	private final Operation opPreProcessLogs1 = this::preProcessLogs1;
 
+	private final VisitGrid.VisitConsumer logCollector = (packedPos, type, depth) -> {
+		if (type != SEARCH_IGNORE && type != SEARCH_SUPPORT) {
+			logs.add(packedVisit(packedPos, depth, 0));
+		}
+	};
+
 	/**
 	 * Adds logs to doomed/log collection and enqueues adjacent spaces for leaf search.
 	 */
 	private Operation preProcessLogs1(Level world) {
-		final ObjectIterator<Entry> it = forwardVisits.long2IntEntrySet().iterator();
-
-		while (it.hasNext()) {
-			final Entry e = it.next();
-			final int packedType = e.getIntValue();
-			final int type = packedType & VISIT_TYPE_MASK;
+		forwardVisits.forEach(logCollector);
 
-			if (type != SEARCH_IGNORE && type != SEARCH_SUPPORT) {
-				logs.add(packedVisit(e.getLongKey(), packedType >>> VISIT_DEPTH_SHIFT, 0));
-			}
-		}
+		// forward visits aren't needed after this, so don't hold bricks while clearing
+		forwardVisits.reset(job.startPos());
 
 		if (logs.isEmpty()) {
 			return Operation.COMPLETE;
@@ -548,7 +1230,11 @@ public class TreeCutter {
 	 */
 	private Operation preProcessLogs2(Level world) {
 		// trim logs to size
-		int excess = logs.size() - computeLogLimit(world);
+		int excess = logs.size() - logLimit;
+
+		if (excess > 0) {
+			recordedTree = null;
+		}
 
 		while (excess-- > 0) {
 			logs.popLong();
@@ -566,6 +1252,10 @@ public class TreeCutter {
 			final long packedPos = getVisitPackedPos(packed);
 			logs.set(i, packedPos);
 
+			if (recordedTree != null && (!recordedTree.containsLog(packedPos) || packedPos == recordedMissingLog)) {
+				recordedTree = null;
+			}
+
 			if (Configurator.keepLogsIntact) {
 				xSum += (BlockPos.getX(packedPos) - xStart) * LOG_FACTOR;
 				zSum += (BlockPos.getZ(packedPos) - zStart) * LOG_FACTOR;
@@ -575,19 +1265,93 @@ public class TreeCutter {
 			doomed.add(packedPos);
 		}
 
+		// logs are distinct, so all recorded logs still present were found if counts match
+		if (recordedTree != null && recordedTree.logCount() - (recordedMissingLog == Long.MAX_VALUE ? 0 : 1) != limit) {
+			recordedTree = null;
+		}
+
 		// sort logs bottom-up for falling purposes
 		logs.sort((l0, l1) -> Integer.compare(BlockPos.getY(l1), BlockPos.getY(l0)));
-		visitIterator = leafVisits.long2IntEntrySet().iterator();
-		return opFindLeavesPre;
+		leafSeeds.clear();
+		leafSeeds.addAll(logs);
+		leafSeedIndex = 0;
+		return canStream() ? opStartStreaming : leafSearchStart();
+	}
+
+	/**
+	 * First leaf search operation - recorded leaves are only checked if the tree is unchanged since it grew.
+	 * Generated trees have no recorded leaves, so they use normal search limited to their bounds.
+	 */
+	private Operation leafSearchStart() {
+		return recordedTree == null || !recordedTree.hasLeaves() ? opFindLeavesPre : opRecordedLeavesPre;
+	}
+
+	/** True if logs can be cleared while leaf search continues - see {@link Configurator#streamClearing}. */
+	private boolean canStream() {
+		return Configurator.streamClearing && Configurator.batchBlockUpdates
+				&& Configurator.fallCondition != FallCondition.NO_SUPPORT
+				&& !Configurator.keepLogsIntact && !Configurator.leafDurability
+				// frozen means search is off-thread or a benchmark - neither can break blocks
+				&& !sections.isFrozen();
+	}
+
+	private final Operation opStartStreaming = this::startStreaming;
+
+	/** Same as {@link #doPreClearing(Level)} but only for logs - leaves aren't known yet. */
+	private Operation startStreaming(Level world) {
+		if (lacksDurability()) {
+			return Operation.COMPLETE;
+		}
+
+		doomIndex.addAll(doomed);
+		doomRegistered = true;
+
+		fx.addExpected(logs.size());
+		logs.sort(SECTION_ORDER.reversed());
+		streamLeafOp = leafSearchStart();
+		return opStreamClearing;
+	}
+
+	private final Operation opStreamClearing = this::streamClearing;
+
+	/**
+	 * Advances leaf search and log clearing one step each. Leaf search only
+	 * reads positions that aren't logs, and neighbors of removed logs are not
+	 * updated until leaf search finishes, so leaf distances seen by the search
+	 * are the same as if no logs had been removed.
+	 */
+	private Operation streamClearing(ServerLevel world) {
+		if (streamLeafOp != null) {
+			streamLeafOp = streamLeafOp.apply(world);
+
+			if (streamLeafOp == opDoPreClearing) {
+				streamLeafOp = null;
+				fx.addExpected(leaves.size());
+				leaves.sort(SECTION_ORDER);
+				leafClearIndex = 0;
+			}
+		}
+
+		if (!logs.isEmpty() && !clearNextLog(world)) {
+			streamLeafOp = null;
+			return dropHandler.opDoDrops;
+		}
+
+		if (logs.isEmpty() && streamLeafOp == null) {
+			// drop logs now in case player doesn't want to wait for leaves
+			dropHandler.spawnDrops(world);
+			return opDoLeafClearing;
+		} else {
+			return opStreamClearing;
+		}
 	}
 
 	private final Operation opFindLeavesPre = this::findLeavesPre;
 
 	private Operation findLeavesPre(Level world) {
-		final ObjectIterator<Entry> it = visitIterator;
-
-		if (it.hasNext()) {
-			final long packedPos = it.next().getLongKey();
+		// logs are the only leaf visits at this point
+		if (leafSeedIndex < leafSeeds.size()) {
+			final long packedPos = leafSeeds.getLong(leafSeedIndex++);
 
 			enqueLeafIfViable(BlockPos.offset(packedPos, 0, 1, 0), SEARCH_LOG, 1);
 			enqueLeafIfViable(BlockPos.offset(packedPos, 0, -1, 0), SEARCH_LOG, 1);
@@ -633,29 +1397,20 @@ public class TreeCutter {
 		searchPos.set(packedPos);
 		int expectedDepth = getVisitPackedDepth(toVisit);
 
-		if (!leafVisits.containsKey(packedPos)) {
-			final BlockState state = world.getBlockState(searchPos);
-			final Block block = state.getBlock();
+		if (!leafVisits.contains(packedPos)) {
+			final int flags = TreeBlockState.getFlags(sections.getBlockState(searchPos));
 			final int searchType = getVisitPackedType(toVisit);
 
-			if (state.is(BlockTags.LEAVES)) {
-				final LeafInfo inf = LeafInfo.get(block);
-				final int actualDepth = inf.applyAsInt(state);
+			if ((flags & TreeBlockState.FLAG_LEAF) != 0) {
+				final int actualDepth = (flags >> TreeBlockState.LEAF_DISTANCE_SHIFT) & TreeBlockState.LEAF_DISTANCE_MASK;
+				final int maxDistance = (flags >> TreeBlockState.LEAF_MAX_DISTANCE_SHIFT) & TreeBlockState.LEAF_DISTANCE_MASK;
 
 				// Leaves directly adjacent always included
 				// Otherwise must have expected distance
-				if (searchType == SEARCH_LOG || actualDepth == Math.min(inf.maxDistance, expectedDepth)) {
-					leafVisits.put(packedPos, SEARCH_LEAF);
-
-					if (Configurator.keepLogsIntact) {
-						xSum += (BlockPos.getX(packedPos) - xStart);
-						zSum += (BlockPos.getZ(packedPos) - zStart);
-						leaves.enqueue(packedPos);
-					} else if (Configurator.fastLeafDecay) {
-						leaves.enqueue(packedPos);
-					}
+				if (searchType == SEARCH_LOG || actualDepth == Math.min(maxDistance, expectedDepth)) {
+					addLeaf(packedPos);
 
-					expectedDepth = Math.min(inf.maxDistance, actualDepth + 1);
+					expectedDepth = Math.min(maxDistance, actualDepth + 1);
 					enqueLeafIfViable(BlockPos.offset(packedPos, 0, -1, 0), SEARCH_LEAF, expectedDepth);
 					enqueLeafIfViable(BlockPos.offset(packedPos, 0, 1, 0), SEARCH_LEAF, expectedDepth);
 					enqueLeafIfViable(BlockPos.offset(packedPos, -1, 0, 0), SEARCH_LEAF, expectedDepth);
@@ -664,7 +1419,7 @@ public class TreeCutter {
 					enqueLeafIfViable(BlockPos.offset(packedPos, 0, 0, 1), SEARCH_LEAF, expectedDepth);
 
 					// diagonals are one more - Manhattan distance
-					expectedDepth = Math.min(inf.maxDistance, expectedDepth + 1);
+					expectedDepth = Math.min(maxDistance, expectedDepth + 1);
 					enqueLeafIfViable(BlockPos.offset(packedPos, -1, 0, -1), SEARCH_LEAF, expectedDepth);
 					enqueLeafIfViable(BlockPos.offset(packedPos, -1, 0, 1), SEARCH_LEAF, expectedDepth);
 					enqueLeafIfViable(BlockPos.offset(packedPos, 1, 0, -1), SEARCH_LEAF, expectedDepth);
@@ -692,22 +1447,218 @@ public class TreeCutter {
 				// Don't ignore leaves if distance doesn't match - may be matched via a different path
 			} else {
 				leafVisits.put(packedPos, SEARCH_IGNORE);
+
+				// doomed logs are already visited, so any log here will remain standing
+				if ((flags & TreeBlockState.FLAG_LOG) != 0) {
+					foreignLogs.add(packedPos);
+				}
+			}
+
+			if (++leafSearchVolume >= MAX_LEAF_SEARCH_VOLUME) {
+				this.toVisit.clear();
 			}
 		}
 
 		if (this.toVisit.isEmpty()) {
-			return opDoPreClearing;
+			return foreignLogs.isEmpty() || leaves.isEmpty() ? opDoPreClearing : opResolveLeavesPre;
 		} else {
 			return opFindLeaves;
 		}
 	}
 
+	private void addLeaf(long packedPos) {
+		leafVisits.put(packedPos, SEARCH_LEAF);
+
+		if (Configurator.keepLogsIntact) {
+			xSum += (BlockPos.getX(packedPos) - xStart);
+			zSum += (BlockPos.getZ(packedPos) - zStart);
+			leaves.add(packedPos);
+		} else if (Configurator.fastLeafDecay) {
+			leaves.add(packedPos);
+		}
+	}
+
+	private final Operation opRecordedLeavesPre = this::recordedLeavesPre;
+
+	private Operation recordedLeavesPre(Level world) {
+		final TreeRegistry.Tree tree = recordedTree;
+		final int limit = tree.leafCount();
+
+		for (int i = 0; i < limit; ++i) {
+			toVisit.enqueue(packedVisit(tree.leafPos(i), 0, SEARCH_LEAF));
+		}
+
+		return toVisit.isEmpty() ? opDoPreClearing : opRecordedLeaves;
+	}
+
+	private final Operation opRecordedLeaves = this::recordedLeaves;
+
+	/**
+	 * Replaces {@link #findLeaves(Level)} for trees recorded when grown.
+	 * Logs found by search matched the record, so recorded positions that
+	 * are still leaves belong to this tree. Face neighbors outside the record
+	 * are read once, queued as {@link #SEARCH_IGNORE} visits, so that logs of
+	 * other trees are found for leaf ownership. If the canopy touches leaves
+	 * that weren't recorded, normal leaf search is used instead.
+	 */
+	private Operation recordedLeaves(Level world) {
+		final long visit = toVisit.dequeueLong();
+		final long packedPos = getVisitPackedPos(visit);
+
+		if (!leafVisits.contains(packedPos)) {
+			searchPos.set(packedPos);
+			final int flags = TreeBlockState.getFlags(sections.getBlockState(searchPos));
+
+			if (getVisitPackedType(visit) == SEARCH_LEAF && (flags & TreeBlockState.FLAG_LEAF) != 0) {
+				addLeaf(packedPos);
+
+				for (final Direction face : FACES) {
+					final long nextPos = BlockPos.offset(packedPos, face);
+
+					if (!leafVisits.contains(nextPos) && !recordedTree.containsLeaf(nextPos)) {
+						toVisit.enqueue(packedVisit(nextPos, 0, SEARCH_IGNORE));
+					}
+				}
+			} else {
+				leafVisits.put(packedPos, SEARCH_IGNORE);
+
+				// doomed logs are already visited, so any log here will remain standing
+				if ((flags & TreeBlockState.FLAG_LOG) != 0) {
+					foreignLogs.add(packedPos);
+				} else if ((flags & TreeBlockState.FLAG_LEAF) != 0) {
+					recordedLeavesShared = true;
+				}
+			}
+		}
+
+		if (!toVisit.isEmpty()) {
+			return opRecordedLeaves;
+		} else if (recordedLeavesShared) {
+			return abandonRecordedLeaves();
+		} else {
+			return foreignLogs.isEmpty() || leaves.isEmpty() ? opDoPreClearing : opResolveLeavesPre;
+		}
+	}
+
+	/** Undoes {@link #recordedLeaves(Level)} and starts normal leaf search. */
+	private Operation abandonRecordedLeaves() {
+		if (Configurator.keepLogsIntact) {
+			final int limit = leaves.size();
+
+			for (int i = 0; i < limit; ++i) {
+				final long packedPos = leaves.getLong(i);
+				xSum -= (BlockPos.getX(packedPos) - xStart);
+				zSum -= (BlockPos.getZ(packedPos) - zStart);
+			}
+		}
+
+		leaves.clear();
+		foreignLogs.clear();
+		leafVisits.reset(job.startPos());
+		final int limit = leafSeeds.size();
+
+		for (int i = 0; i < limit; ++i) {
+			leafVisits.put(leafSeeds.getLong(i), SEARCH_LOG);
+		}
+
+		recordedTree = null;
+		leafSeedIndex = 0;
+		return opFindLeavesPre;
+	}
+
+	private final Operation opResolveLeavesPre = this::resolveLeavesPre;
+
+	/**
+	 * Seeds leaf ownership search from remaining logs and doomed logs.
+	 *
+	 * <p>Visits are queued with distance in the type bits and owner in the depth
+	 * bits so the queue orders by distance and then owner. Leaves are claimed
+	 * by whichever log set reaches them first, so ties go to remaining logs
+	 * and leaves that are equally close to a standing tree are kept.
+	 */
+	private Operation resolveLeavesPre(Level world) {
+		final int foreignCount = foreignLogs.size();
+
+		for (int i = 0; i < foreignCount; ++i) {
+			toVisit.enqueue(packedVisit(foreignLogs.getLong(i), OWNER_REMAINING, 0));
+		}
+
+		final int logCount = leafSeeds.size();
+
+		for (int i = 0; i < logCount; ++i) {
+			toVisit.enqueue(packedVisit(leafSeeds.getLong(i), OWNER_DOOMED, 0));
+		}
+
+		return opResolveLeaves;
+	}
+
+	private static final int OWNER_REMAINING = 0;
+	private static final int OWNER_DOOMED = 1;
+
+	private final Operation opResolveLeaves = this::resolveLeaves;
+
+	/**
+	 * Multi-source breadth-first search limited to leaves found by leaf search.
+	 * Uses face neighbors only, same as vanilla leaf distance.
+	 */
+	private Operation resolveLeaves(Level world) {
+		final long visit = toVisit.dequeueLong();
+		final long packedPos = getVisitPackedPos(visit);
+		final int owner = getVisitPackedDepth(visit);
+		final int distance = getVisitPackedType(visit) + 1;
+
+		if (distance < 127) {
+			for (final Direction face : FACES) {
+				final long nextPos = BlockPos.offset(packedPos, face);
+
+				if (leafVisits.getType(nextPos) == SEARCH_LEAF) {
+					leafVisits.put(nextPos, owner == OWNER_DOOMED ? SEARCH_LEAF_OWNED : SEARCH_IGNORE);
+					toVisit.enqueue(packedVisit(nextPos, owner, distance));
+				}
+			}
+		}
+
+		if (toVisit.isEmpty()) {
+			return removeForeignLeaves();
+		} else {
+			return opResolveLeaves;
+		}
+	}
+
+	/** Drops leaves claimed by remaining logs. Leaves not reached by either side are still cleared. */
+	private Operation removeForeignLeaves() {
+		final LongArrayList leaves = this.leaves;
+		final int limit = leaves.size();
+		int keep = 0;
+
+		for (int i = 0; i < limit; ++i) {
+			final long packedPos = leaves.getLong(i);
+
+			if (leafVisits.getType(packedPos) == SEARCH_IGNORE) {
+				if (Configurator.keepLogsIntact) {
+					xSum -= (BlockPos.getX(packedPos) - xStart);
+					zSum -= (BlockPos.getZ(packedPos) - zStart);
+				}
+			} else {
+				leafVisits.put(packedPos, SEARCH_LEAF);
+				leaves.set(keep++, packedPos);
+			}
+		}
+
+		leaves.size(keep);
+		return opDoPreClearing;
+	}
+
 	private void enqueLeafIfViable(long packedPos, int type, int depth) {
-		if (leafVisits.containsKey(packedPos)) {
+		if (leafVisits.contains(packedPos)) {
+			return;
+		}
+
+		if (depth >= MAX_DEPTH || depth < 0) {
 			return;
 		}
 
-		if (depth >= 127 || depth < 0) {
+		if (recordedTree != null && !recordedTree.isNear(packedPos, GENERATED_LEAF_MARGIN)) {
 			return;
 		}
 
@@ -721,18 +1672,20 @@ public class TreeCutter {
 		// This only matters when we have to protect the tool or when we are keeping logs intact.
 		// It matters when logs are intact because we remove all the logs first and then spawn them
 		// incrementally. If we run out of durability mid-removal it gets weird due to lack of fancy physics.
-		if (job.hasAxe() && Configurator.consumeDurability && (Configurator.protectTools || Configurator.keepLogsIntact)) {
-			final ItemStack stack = job.stack();
-			final int capacity = stack.isEmpty() ? 0 : stack.getMaxDamage() - stack.getDamageValue();
-			final int needed = logs.size() + (Configurator.leafDurability ? leaves.size() : 0);
-
-			if (needed >= capacity) {
-				return Operation.COMPLETE;
-			}
+		if (lacksDurability()) {
+			return Operation.COMPLETE;
 		}
 
+		// search may have run off-thread, so this is the first chance to share
+		doomIndex.addAll(doomed);
+		doomRegistered = true;
+
 		fx.addExpected(leaves.size());
 
+		// clearing is spread over ticks, so keep each tick's changes in as few sections as possible
+		leaves.sort(SECTION_ORDER);
+		leafClearIndex = 0;
+
 		if (!Configurator.keepLogsIntact) {
 			fx.addExpected(logs.size());
 		}
@@ -763,23 +1716,61 @@ public class TreeCutter {
 
 			return logs.isEmpty() ? dropHandler.opDoDrops : opDoLogDropping1;
 		} else {
+			// logs are popped from the end, so lowest sections still go first
+			logs.sort(SECTION_ORDER.reversed());
 			return opDoLogClearing;
 		}
 	}
 
+	/**
+	 * Orders positions bottom to top by chunk section and then by section
+	 * within each layer. Changed blocks are sent to clients once per section
+	 * per tick, so clearing section by section means fewer and denser packets.
+	 */
+	private static final LongComparator SECTION_ORDER = (a, b) -> {
+		int result = Integer.compare(BlockPos.getY(a) >> 4, BlockPos.getY(b) >> 4);
+
+		if (result == 0) {
+			result = Integer.compare(BlockPos.getX(a) >> 4, BlockPos.getX(b) >> 4);
+
+			if (result == 0) {
+				result = Integer.compare(BlockPos.getZ(a) >> 4, BlockPos.getZ(b) >> 4);
+
+				if (result == 0) {
+					result = Integer.compare(BlockPos.getY(a), BlockPos.getY(b));
+				}
+			}
+		}
+
+		return result;
+	};
+
+	/** True if the tool must last for all found blocks and can't. */
+	private boolean lacksDurability() {
+		if (job.hasAxe() && Configurator.consumeDurability && (Configurator.protectTools || Configurator.keepLogsIntact)) {
+			final ItemStack stack = job.stack();
+			final int capacity = stack.isEmpty() ? 0 : stack.getMaxDamage() - stack.getDamageValue();
+			final int needed = logs.size() + (Configurator.leafDurability ? leaves.size() : 0);
+			return needed >= capacity;
+		}
+
+		return false;
+	}
+
 	private final Operation opDoLeafClearing = this::doLeafClearing;
 
 	private Operation doLeafClearing(ServerLevel world) {
-		if (leaves.isEmpty()) {
+		if (leafClearIndex >= leaves.size()) {
+			// all paths that clear everything end here
+			clearingFinished = true;
 			return dropHandler.opDoDrops;
 		}
 
-		final long packedPos = leaves.dequeueLong();
+		final long packedPos = leaves.getLong(leafClearIndex++);
 		final BlockPos pos = searchPos.set(packedPos);
-		final BlockState state = world.getBlockState(pos);
-		final Block block = state.getBlock();
+		final BlockState state = sections.getBlockState(pos);
 
-		if (block.builtInRegistryHolder().is(BlockTags.LEAVES)) {
+		if (TreeBlockState.isLeaf(state)) {
 			if (!Configurator.leafDurability || checkDurability(world, state, pos)) {
 				breakBlock(pos, world);
 				breakBudget -= 20;
@@ -794,34 +1785,41 @@ public class TreeCutter {
 	private final Operation opDoLogClearing = this::doLogClearing;
 
 	private Operation doLogClearing(ServerLevel world) {
+		if (!clearNextLog(world)) {
+			return dropHandler.opDoDrops;
+		}
+
+		if (logs.isEmpty()) {
+			// drop leaves now in case player doesn't want to wait for logs
+			dropHandler.spawnDrops(world);
+			return opDoLeafClearing;
+		} else {
+			return opDoLogClearing;
+		}
+	}
+
+	/** Breaks the next log if it is still there. False if the tool can't be used further. */
+	private boolean clearNextLog(ServerLevel world) {
 		final long packedPos = logs.popLong();
 		final BlockPos pos = searchPos.set(packedPos);
-		final BlockState state = world.getBlockState(pos);
+		final BlockState state = sections.getBlockState(pos);
 
 		if ((TreeBlock.getType(state) & logMask) != 0) {
 			if (checkDurability(world, state, pos)) {
 				breakBudget -= 20;
 				breakBlock(pos, world);
 			} else {
-				return dropHandler.opDoDrops;
+				return false;
 			}
 		}
 
-		if (logs.isEmpty()) {
-			// drop leaves now in case player doesn't want to wait for logs
-			dropHandler.spawnDrops(world);
-			return opDoLeafClearing;
-		} else {
-			return opDoLogClearing;
-		}
+		return true;
 	}
 
-	private final Predicate<BlockPos> suspender = p -> doomed.contains(p.asLong());
-
 	private void breakBlock(BlockPos pos, ServerLevel world) {
-		final BlockState blockState = world.getBlockState(pos);
+		final BlockState blockState = sections.getBlockState(pos);
 		final Block block = blockState.getBlock();
-		final boolean isLeaf = blockState.is(BlockTags.LEAVES);
+		final boolean isLeaf = TreeBlockState.isLeaf(blockState);
 
 		if ((TreeBlock.getType(blockState) & logMask) == 0 && !isLeaf) {
 			// notify fx to increase chance because chance is based on totals reported earlier
@@ -833,8 +1831,16 @@ public class TreeCutter {
 		final BlockEntity blockEntity = blockState.hasBlockEntity() ? world.getBlockEntity(pos) : null;
 
 		dropHandler.doDrops(blockState, world, pos, blockEntity);
-		Dispatcher.suspend(suspender);
-		world.setBlock(pos, fluidState.createLegacyBlock(), 3);
+		Dispatcher.suspend();
+
+		if (Configurator.batchBlockUpdates) {
+			// clients are still notified, neighbors are notified later in one pass
+			world.setBlock(pos, fluidState.createLegacyBlock(), Block.UPDATE_CLIENTS | Block.UPDATE_KNOWN_SHAPE);
+			removed.add(pos.asLong());
+		} else {
+			world.setBlock(pos, fluidState.createLegacyBlock(), Block.UPDATE_ALL);
+		}
+
 		Dispatcher.resume();
 
 		if (fx.request(true)) {
@@ -844,6 +1850,77 @@ public class TreeCutter {
 		applyHunger(isLeaf, block);
 	}
 
+	/**
+	 * Sends the shape and neighbor updates that were skipped when blocks were
+	 * cleared, but only to neighbors that will remain. Updates between blocks
+	 * of the same tree are pointless and are most of the total. Lighting and
+	 * client sync are not affected - setBlock queues both regardless of flags
+	 * and the server already sends section changes once per tick.
+	 *
+	 * <p>Blocks still to be cleared are skipped while the job runs. If the job
+	 * ends without clearing them - cancelled, timed out or out of durability -
+	 * the skipped updates are sent when it completes.
+	 */
+	private void flushBlockUpdates(ServerLevel world) {
+		final boolean skipDoomed = operation != Operation.COMPLETE || clearingFinished;
+
+		if (!skipDoomed && !deferredUpdates.isEmpty()) {
+			removed.addAll(deferredUpdates);
+		}
+
+		if (operation == Operation.COMPLETE) {
+			deferredUpdates.clear();
+		}
+
+		if (removed.isEmpty()) {
+			return;
+		}
+
+		// leaves that are going to be cleared don't need updates either
+		final boolean skipLeaves = Configurator.keepLogsIntact || Configurator.fastLeafDecay;
+		final boolean defer = operation != Operation.COMPLETE;
+		final BlockPos.MutableBlockPos pos = updatePos;
+		final BlockPos.MutableBlockPos neighborPos = searchPos;
+		final LongIterator it = removed.iterator();
+
+		Dispatcher.suspend();
+
+		while (it.hasNext()) {
+			final long packedPos = it.nextLong();
+			pos.set(packedPos);
+			final BlockState state = world.getBlockState(pos);
+
+			for (final Direction face : FACES) {
+				final long neighbor = BlockPos.offset(packedPos, face);
+
+				if (removed.contains(neighbor)) {
+					continue;
+				}
+
+				if (skipDoomed && (doomed.contains(neighbor) || (skipLeaves && leafVisits.getType(neighbor) == SEARCH_LEAF))) {
+					if (defer) {
+						deferredUpdates.add(packedPos);
+					}
+
+					continue;
+				}
+
+				neighborPos.set(neighbor);
+
+				// don't load chunks just to notify them
+				if (!world.isLoaded(neighborPos)) {
+					continue;
+				}
+
+				world.neighborShapeChanged(face.getOpposite(), state, neighborPos, pos, Block.UPDATE_ALL, 512);
+				world.neighborChanged(neighborPos, state.getBlock(), pos);
+			}
+		}
+
+		Dispatcher.resume();
+		removed.clear();
+	}
+
 	private boolean checkDurability(Level world, BlockState state, BlockPos pos) {
 		if (Configurator.consumeDurability && job.hasAxe() && !job.player().isCreative()) {
 			final ItemStack stack = job.stack();
@@ -888,7 +1965,7 @@ public class TreeCutter {
 
 		final long packedPos = logs.getLong(i);
 		final BlockPos pos = searchPos.set(packedPos);
-		final BlockState state = world.getBlockState(pos);
+		final BlockState state = sections.getBlockState(pos);
 		fallingLogStates.add(state);
 
 		if (checkDurability(world, state, pos)) {
@@ -22,6 +22,8 @@ package grondag.tdnf.world;
 
 import java.util.concurrent.ArrayBlockingQueue;
 
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
 import net.minecraft.core.BlockPos;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
@@ -41,10 +43,15 @@ public class TreeJob {
 	private boolean hasAxe;
 	private boolean canCancel = true;
 	private int ticks = 0;
+	private final LongArrayList extraStarts = new LongArrayList();
+
+	/** Scheduler credit in nanoseconds. Negative when the job overran its last time slice. */
+	long deficitNanos = 0;
 
-	private void reset(ProtectionTracker protectionTracker) {
+	private void reset(ProtectionTracker protectionTracker, DoomIndex doomIndex, TreeRegistry treeRegistry) {
 		ticks = 0;
-		cutter.reset(protectionTracker);
+		deficitNanos = 0;
+		cutter.reset(protectionTracker, doomIndex, treeRegistry);
 	}
 
 	public void prepareForTick(ServerLevel world) {
@@ -65,6 +72,16 @@ public class TreeJob {
 		return startPos;
 	}
 
+	/** other packed starting positions merged into this job before it started. */
+	public LongArrayList extraStarts() {
+		return extraStarts;
+	}
+
+	/** True if this job can absorb a break from the given player at the given position. */
+	boolean tryCoalesce(long packedPos, ServerPlayer player) {
+		return player == this.player && cutter.tryCoalesce(packedPos);
+	}
+
 	/** player who initiated the break, if known. */
 	public ServerPlayer player() {
 		return player;
@@ -83,6 +100,21 @@ public class TreeJob {
 		return cutter.isComplete();
 	}
 
+	/** True if waiting for a chunk to load - see {@link WorldJobs}. */
+	public boolean isParked() {
+		return cutter.parkedChunk() != Long.MAX_VALUE;
+	}
+
+	/** Call each tick while parked, so that parked time counts toward timeout. */
+	void tickParked() {
+		++ticks;
+	}
+
+	/** Ticks since job started running. */
+	public int ticks() {
+		return ticks;
+	}
+
 	public boolean isTimedOut() {
 		return ticks > Configurator.jobTimeoutTicks;
 	}
@@ -95,6 +127,8 @@ public class TreeJob {
 	public void release() {
 		player = null;
 		stack = null;
+		extraStarts.clear();
+		cutter.release();
 		POOL.offer(this);
 	}
 
@@ -127,7 +161,7 @@ public class TreeJob {
 
 	private static final ArrayBlockingQueue<TreeJob> POOL = new ArrayBlockingQueue<>(512);
 
-	public static TreeJob claim(long startPos, ServerPlayer player, ItemStack stack, ProtectionTracker protectionTracker) {
+	public static TreeJob claim(long startPos, ServerPlayer player, ItemStack stack, ProtectionTracker protectionTracker, DoomIndex doomIndex, TreeRegistry treeRegistry) {
 		TreeJob result = POOL.poll();
 
 		if (result == null) {
@@ -141,7 +175,7 @@ public class TreeJob {
 		// Overall the assumptions here are sloppy for modded - may need to rethink how tools work
 		result.hasAxe = DropHandler.hasAxe(player, stack);
 		result.canCancel = result.hasAxe && Configurator.fallCondition == FallCondition.USE_TOOL;
-		result.reset(protectionTracker);
+		result.reset(protectionTracker, doomIndex, treeRegistry);
 		return result;
 	}
 }
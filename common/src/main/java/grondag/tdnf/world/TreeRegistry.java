@@ -0,0 +1,538 @@
+/*
+ * This file is part of Trees Do Not Float and is licensed to the project under
+ * terms that are compatible with the GNU Lesser General Public License.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership and licensing.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package grondag.tdnf.world;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
+import org.jetbrains.annotations.Nullable;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.WorldGenRegion;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.LevelAccessor;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraft.world.level.saveddata.SavedData;
+
+import grondag.tdnf.TreesDoNotFloat;
+import grondag.tdnf.config.Configurator;
+
+/**
+ * Log and leaf positions of trees grown from saplings, recorded while
+ * {@code SaplingBlock.advanceTree} runs. When a recorded tree is cut and
+ * forward search finds exactly the recorded logs, the recorded leaves are
+ * checked directly instead of being found by flood fill.
+ *
+ * <p>Records are indexed by every chunk their bounds touch. The first recorded
+ * log removed is usually the break that starts a job on the tree, so the
+ * record is kept and notes that log as missing. Removing any other recorded
+ * log drops the record, so the registry only holds trees that are intact
+ * apart from at most one log. Positions are immutable and safe to read
+ * off-thread. The missing log is only read and written on the server thread.
+ * It is saved with the record but doesn't mark the registry dirty on its own -
+ * if it is lost, the log count no longer matches and flood fill is used.
+ *
+ * <p>Grown and generated trees are each limited to
+ * {@link Configurator#maxRecordedTrees}. When a limit is reached the oldest
+ * record of that kind is dropped to make room, so trees in regions no longer
+ * visited age out. Records are saved oldest first to keep that order.
+ *
+ * <p>Trees that replace leaves or logs already in the world share a canopy
+ * with another tree and are not recorded. Capture is only done on the server thread.
+ *
+ * <p>When {@link Configurator#indexGeneratedTrees} is on, trees placed during
+ * world generation are also recorded, with logs and bounds but no leaves.
+ * Leaf search for them still runs but stays near the bounds. These are
+ * staged from world generation threads and added on the server thread.
+ */
+public class TreeRegistry extends SavedData {
+	public static final String FILE_ID = "tdnf_trees";
+	private static final String TAG_NAME = "trees";
+
+	/** Offsets from origin are packed into a byte per axis. */
+	private static final int MAX_OFFSET = 127;
+
+	/** Larger trees aren't recorded. Flood fill is still used for them. */
+	private static final int MAX_BLOCKS = 4096;
+
+	private static boolean capturing = false;
+	private static long captureOrigin;
+
+	/** True if the growing tree replaced leaves or logs it didn't place - leaf ownership is then unclear. */
+	private static boolean captureShared;
+	private static final LongOpenHashSet capturedLogs = new LongOpenHashSet();
+	private static final LongOpenHashSet capturedLeaves = new LongOpenHashSet();
+
+	private static final ConcurrentLinkedQueue<StagedTree> staged = new ConcurrentLinkedQueue<>();
+
+	private static class StagedTree {
+		private final ServerLevel world;
+		private final Tree tree;
+
+		private StagedTree(ServerLevel world, Tree tree) {
+			this.world = world;
+			this.tree = tree;
+		}
+	}
+
+	/** Trees by each chunk they touch. */
+	private final Long2ObjectOpenHashMap<ObjectArrayList<Tree>> chunks = new Long2ObjectOpenHashMap<>();
+
+	/** Grown and generated trees in the order added. Separate so generated trees can't crowd out grown trees. */
+	private final ObjectLinkedOpenHashSet<Tree> grownTrees = new ObjectLinkedOpenHashSet<>();
+	private final ObjectLinkedOpenHashSet<Tree> generatedTrees = new ObjectLinkedOpenHashSet<>();
+	private boolean loggedLimit = false;
+
+	/** Positions are relative to origin, packed by {@link #relativeKey} and sorted. */
+	public static class Tree {
+		private final long origin;
+		private final int[] logs;
+		/** Empty for generated trees - see {@link #hasLeaves()}. */
+		private final int[] leaves;
+		private final boolean hasLeaves;
+
+		/** Recorded log that has been removed, or Long.MAX_VALUE. */
+		private long missingLog = Long.MAX_VALUE;
+		private int minX = Integer.MAX_VALUE;
+		private int minY = Integer.MAX_VALUE;
+		private int minZ = Integer.MAX_VALUE;
+		private int maxX = Integer.MIN_VALUE;
+		private int maxY = Integer.MIN_VALUE;
+		private int maxZ = Integer.MIN_VALUE;
+
+		private Tree(long origin, int[] logs, int[] leaves) {
+			this.origin = origin;
+			this.logs = logs;
+			this.leaves = leaves;
+			hasLeaves = true;
+
+			for (final int key : logs) {
+				includeBounds(absolutePos(origin, key));
+			}
+
+			for (final int key : leaves) {
+				includeBounds(absolutePos(origin, key));
+			}
+		}
+
+		/** For generated trees. Bounds are given because leaves aren't recorded. */
+		private Tree(long origin, int[] logs, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+			this.origin = origin;
+			this.logs = logs;
+			leaves = new int[0];
+			hasLeaves = false;
+			this.minX = minX;
+			this.minY = minY;
+			this.minZ = minZ;
+			this.maxX = maxX;
+			this.maxY = maxY;
+			this.maxZ = maxZ;
+		}
+
+		private void includeBounds(long packedPos) {
+			minX = Math.min(minX, BlockPos.getX(packedPos));
+			minY = Math.min(minY, BlockPos.getY(packedPos));
+			minZ = Math.min(minZ, BlockPos.getZ(packedPos));
+			maxX = Math.max(maxX, BlockPos.getX(packedPos));
+			maxY = Math.max(maxY, BlockPos.getY(packedPos));
+			maxZ = Math.max(maxZ, BlockPos.getZ(packedPos));
+		}
+
+		public int logCount() {
+			return logs.length;
+		}
+
+		public boolean containsLog(long packedPos) {
+			return inBounds(packedPos) && Arrays.binarySearch(logs, relativeKey(origin, packedPos)) >= 0;
+		}
+
+		public boolean containsLeaf(long packedPos) {
+			return inBounds(packedPos) && Arrays.binarySearch(leaves, relativeKey(origin, packedPos)) >= 0;
+		}
+
+		/** Recorded log that has been removed, or Long.MAX_VALUE if all are present. Server thread only. */
+		public long missingLog() {
+			return missingLog;
+		}
+
+		/** False for generated trees, which record only logs and bounds. */
+		public boolean hasLeaves() {
+			return hasLeaves;
+		}
+
+		public int leafCount() {
+			return leaves.length;
+		}
+
+		public long leafPos(int index) {
+			return absolutePos(origin, leaves[index]);
+		}
+
+		private boolean inBounds(long packedPos) {
+			return isNear(packedPos, 0);
+		}
+
+		/** True if the position is within the given distance of the tree's bounds on every axis. */
+		public boolean isNear(long packedPos, int margin) {
+			final int x = BlockPos.getX(packedPos);
+			final int y = BlockPos.getY(packedPos);
+			final int z = BlockPos.getZ(packedPos);
+			return x >= minX - margin && x <= maxX + margin && y >= minY - margin && y <= maxY + margin && z >= minZ - margin && z <= maxZ + margin;
+		}
+
+		private boolean intersects(Tree other) {
+			return minX <= other.maxX && maxX >= other.minX
+					&& minY <= other.maxY && maxY >= other.minY
+					&& minZ <= other.maxZ && maxZ >= other.minZ;
+		}
+	}
+
+	private static int relativeKey(long origin, long packedPos) {
+		final int dx = BlockPos.getX(packedPos) - BlockPos.getX(origin) + 128;
+		final int dy = BlockPos.getY(packedPos) - BlockPos.getY(origin) + 128;
+		final int dz = BlockPos.getZ(packedPos) - BlockPos.getZ(origin) + 128;
+		return dx | (dy << 8) | (dz << 16);
+	}
+
+	private static long absolutePos(long origin, int key) {
+		return BlockPos.offset(origin, (key & 0xFF) - 128, ((key >> 8) & 0xFF) - 128, ((key >> 16) & 0xFF) - 128);
+	}
+
+	private static boolean inRange(long origin, long packedPos) {
+		return Math.abs(BlockPos.getX(packedPos) - BlockPos.getX(origin)) <= MAX_OFFSET
+				&& Math.abs(BlockPos.getY(packedPos) - BlockPos.getY(origin)) <= MAX_OFFSET
+				&& Math.abs(BlockPos.getZ(packedPos) - BlockPos.getZ(origin)) <= MAX_OFFSET;
+	}
+
+	/** Call before a sapling grows. */
+	public static void startCapture(BlockPos origin) {
+		capturedLogs.clear();
+		capturedLeaves.clear();
+		captureOrigin = origin.asLong();
+		captureShared = false;
+		capturing = true;
+	}
+
+	public static boolean isCapturing() {
+		return capturing;
+	}
+
+	/** Call for each block placed while capturing. Last state placed at a position wins. */
+	public static void capture(BlockPos pos, BlockState state, BlockState oldState) {
+		final long packedPos = pos.asLong();
+		final int flags = TreeBlockState.getFlags(state);
+
+		if ((TreeBlockState.getFlags(oldState) & (TreeBlockState.FLAG_LOG | TreeBlockState.FLAG_LEAF)) != 0
+				&& !capturedLogs.contains(packedPos) && !capturedLeaves.contains(packedPos)) {
+			captureShared = true;
+		}
+
+		if ((flags & TreeBlockState.FLAG_LOG) != 0) {
+			capturedLeaves.remove(packedPos);
+			capturedLogs.add(packedPos);
+		} else if ((flags & TreeBlockState.FLAG_LEAF) != 0) {
+			capturedLogs.remove(packedPos);
+			capturedLeaves.add(packedPos);
+		} else {
+			capturedLogs.remove(packedPos);
+			capturedLeaves.remove(packedPos);
+		}
+	}
+
+	/** Call after a sapling grows, whether or not it succeeded. */
+	public static void endCapture(ServerLevel world) {
+		capturing = false;
+
+		if (!captureShared && !capturedLogs.isEmpty() && capturedLogs.size() + capturedLeaves.size() <= MAX_BLOCKS) {
+			final int[] logs = relativeKeys(captureOrigin, capturedLogs);
+			final int[] leaves = relativeKeys(captureOrigin, capturedLeaves);
+
+			if (logs != null && leaves != null) {
+				Dispatcher.treeRegistry(world).add(new Tree(captureOrigin, logs, leaves));
+			}
+		}
+
+		capturedLogs.clear();
+		capturedLeaves.clear();
+	}
+
+	/**
+	 * Call from world generation when a tree feature has placed its logs.
+	 * May run on any thread. Ignored unless generating a new chunk.
+	 */
+	public static void stageGenerated(LevelAccessor level, BoundingBox box, Set<BlockPos> logs) {
+		if (!Configurator.indexGeneratedTrees || !(level instanceof WorldGenRegion) || logs.isEmpty() || logs.size() > MAX_BLOCKS) {
+			return;
+		}
+
+		final LongOpenHashSet positions = new LongOpenHashSet(logs.size());
+		long origin = Long.MAX_VALUE;
+		int originY = Integer.MAX_VALUE;
+
+		for (final BlockPos pos : logs) {
+			positions.add(pos.asLong());
+
+			if (pos.getY() < originY) {
+				originY = pos.getY();
+				origin = pos.asLong();
+			}
+		}
+
+		final int[] keys = relativeKeys(origin, positions);
+
+		if (keys != null) {
+			final Tree tree = new Tree(origin, keys, box.minX(), box.minY(), box.minZ(), box.maxX(), box.maxY(), box.maxZ());
+			staged.add(new StagedTree(((WorldGenRegion) level).getLevel(), tree));
+		}
+	}
+
+	/** Adds trees staged by world generation. Call on the server thread. */
+	public static void addStaged() {
+		StagedTree next;
+
+		while ((next = staged.poll()) != null) {
+			Dispatcher.treeRegistry(next.world).add(next.tree);
+		}
+	}
+
+	/** Sorted keys or null if any position is out of range. */
+	private static int[] relativeKeys(long origin, LongOpenHashSet positions) {
+		final int[] result = new int[positions.size()];
+		int i = 0;
+
+		for (final long packedPos : positions) {
+			if (!inRange(origin, packedPos)) {
+				return null;
+			}
+
+			result[i++] = relativeKey(origin, packedPos);
+		}
+
+		Arrays.sort(result);
+		return result;
+	}
+
+	public static TreeRegistry load(CompoundTag tag) {
+		final TreeRegistry result = new TreeRegistry();
+		final ListTag list = tag.getList(TAG_NAME, Tag.TAG_COMPOUND);
+
+		for (int i = 0; i < list.size(); ++i) {
+			final CompoundTag treeTag = list.getCompound(i);
+			final int[] logs = treeTag.getIntArray("logs");
+			final int[] bounds = treeTag.getIntArray("bounds");
+
+			if (logs.length == 0) {
+				continue;
+			}
+
+			final Tree tree;
+
+			if (bounds.length == 6) {
+				tree = new Tree(treeTag.getLong("origin"), logs, bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5]);
+			} else {
+				tree = new Tree(treeTag.getLong("origin"), logs, treeTag.getIntArray("leaves"));
+			}
+
+			if (treeTag.contains("missing")) {
+				tree.missingLog = treeTag.getLong("missing");
+			}
+
+			result.index(tree);
+		}
+
+		return result;
+	}
+
+	@Override
+	public CompoundTag save(CompoundTag tag) {
+		final ListTag list = new ListTag();
+		saveTrees(grownTrees, list);
+		saveTrees(generatedTrees, list);
+		tag.put(TAG_NAME, list);
+		return tag;
+	}
+
+	private static void saveTrees(ObjectLinkedOpenHashSet<Tree> trees, ListTag list) {
+		for (final Tree tree : trees) {
+			final CompoundTag treeTag = new CompoundTag();
+			treeTag.putLong("origin", tree.origin);
+			treeTag.putIntArray("logs", tree.logs);
+
+			if (tree.missingLog != Long.MAX_VALUE) {
+				treeTag.putLong("missing", tree.missingLog);
+			}
+
+			if (tree.hasLeaves) {
+				treeTag.putIntArray("leaves", tree.leaves);
+			} else {
+				treeTag.putIntArray("bounds", new int[] {tree.minX, tree.minY, tree.minZ, tree.maxX, tree.maxY, tree.maxZ});
+			}
+
+			list.add(treeTag);
+		}
+	}
+
+	private void add(Tree tree) {
+		final int limit = Configurator.maxRecordedTrees;
+
+		if (limit == 0) {
+			return;
+		}
+
+		// a sapling can only grow once, so any record at the same origin is stale
+		remove(tree.origin);
+		final ObjectLinkedOpenHashSet<Tree> trees = tree.hasLeaves ? grownTrees : generatedTrees;
+
+		if (trees.size() >= limit) {
+			if (!loggedLimit) {
+				loggedLimit = true;
+				TreesDoNotFloat.LOG.info("Recorded tree limit of " + limit + " reached. Oldest records will be dropped to make room. Increase maxRecordedTrees to keep more.");
+			}
+
+			while (trees.size() >= limit) {
+				remove(trees.first());
+			}
+		}
+
+		index(tree);
+		setDirty();
+	}
+
+	private void index(Tree tree) {
+		for (int x = tree.minX >> 4; x <= tree.maxX >> 4; ++x) {
+			for (int z = tree.minZ >> 4; z <= tree.maxZ >> 4; ++z) {
+				chunks.computeIfAbsent(ChunkPos.asLong(x, z), k -> new ObjectArrayList<>()).add(tree);
+			}
+		}
+
+		if (tree.hasLeaves) {
+			grownTrees.add(tree);
+		} else {
+			generatedTrees.add(tree);
+		}
+	}
+
+	private void remove(Tree tree) {
+		for (int x = tree.minX >> 4; x <= tree.maxX >> 4; ++x) {
+			for (int z = tree.minZ >> 4; z <= tree.maxZ >> 4; ++z) {
+				final long key = ChunkPos.asLong(x, z);
+				final ObjectArrayList<Tree> trees = chunks.get(key);
+
+				if (trees != null && trees.remove(tree) && trees.isEmpty()) {
+					chunks.remove(key);
+				}
+			}
+		}
+
+		if (tree.hasLeaves) {
+			grownTrees.remove(tree);
+		} else {
+			generatedTrees.remove(tree);
+		}
+
+		setDirty();
+	}
+
+	private void remove(long origin) {
+		final ObjectArrayList<Tree> trees = chunks.get(ChunkPos.asLong(BlockPos.getX(origin) >> 4, BlockPos.getZ(origin) >> 4));
+
+		if (trees != null) {
+			for (final Tree tree : trees) {
+				if (tree.origin == origin) {
+					remove(tree);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Recorded tree with a log at the given position, or null if there is none.
+	 * Also null if a grown tree's bounds overlap another recorded tree, because
+	 * leaves in the overlap may belong to either one. Generated trees have no
+	 * recorded leaves so overlap doesn't matter for them.
+	 */
+	public @Nullable Tree find(long packedPos) {
+		final ObjectArrayList<Tree> trees = chunks.get(ChunkPos.asLong(BlockPos.getX(packedPos) >> 4, BlockPos.getZ(packedPos) >> 4));
+
+		if (trees == null) {
+			return null;
+		}
+
+		for (final Tree tree : trees) {
+			if (tree.containsLog(packedPos)) {
+				return tree.hasLeaves && overlapsAny(tree) ? null : tree;
+			}
+		}
+
+		return null;
+	}
+
+	private boolean overlapsAny(Tree tree) {
+		for (int x = tree.minX >> 4; x <= tree.maxX >> 4; ++x) {
+			for (int z = tree.minZ >> 4; z <= tree.maxZ >> 4; ++z) {
+				final ObjectArrayList<Tree> trees = chunks.get(ChunkPos.asLong(x, z));
+
+				for (final Tree other : trees) {
+					if (other != tree && other.intersects(tree)) {
+						return true;
+					}
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/** Call when a log is removed, for any reason. */
+	public void logRemoved(long packedPos) {
+		if (chunks.isEmpty()) {
+			return;
+		}
+
+		final ObjectArrayList<Tree> trees = chunks.get(ChunkPos.asLong(BlockPos.getX(packedPos) >> 4, BlockPos.getZ(packedPos) >> 4));
+
+		if (trees != null) {
+			for (final Tree tree : trees) {
+				if (tree.containsLog(packedPos)) {
+					if (tree.missingLog == Long.MAX_VALUE) {
+						// probably starts a job that can still use the record
+						tree.missingLog = packedPos;
+					} else if (tree.missingLog != packedPos) {
+						remove(tree);
+					}
+
+					return;
+				}
+			}
+		}
+	}
+}
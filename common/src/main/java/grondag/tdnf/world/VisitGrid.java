@@ -0,0 +1,284 @@
+/*
+ * This file is part of Trees Do Not Float and is licensed to the project under
+ * terms that are compatible with the GNU Lesser General Public License.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership and licensing.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package grondag.tdnf.world;
+
+import java.util.Arrays;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import net.minecraft.core.BlockPos;
+
+/**
+ * Job-local record of search visits, replacing hash maps keyed by packed position.
+ *
+ * <p>Positions are addressed relative to the job start and must be within
+ * +/- 4095 blocks horizontally and +/- 2047 vertically - the same bounds
+ * assumed by visit packing in {@link TreeCutter}. Positions outside that
+ * range read as already visited so searches never wander past it.
+ *
+ * <p>Storage is divided into 16x16x16 bricks allocated on demand and found
+ * through a hashed directory. Each cell holds a 4-bit visit type and bricks
+ * lazily allocate a separate depth array when the first non-zero depth is
+ * written. Reset cost is proportional to the number of bricks touched.
+ *
+ * <p>At most {@link #MAX_BRICKS} bricks are allocated. Once that many are in
+ * use the grid is {@link #isFull() full} and positions in other bricks also
+ * read as already visited.
+ */
+public class VisitGrid {
+	/** returned by {@link #getType(long)} when position has not been visited. */
+	public static final int NOT_PRESENT = -1;
+
+	private static final int XZ_OFFSET = 4096;
+	private static final int XZ_RANGE = 8192;
+	private static final int Y_OFFSET = 2048;
+	private static final int Y_RANGE = 4096;
+	private static final int MAX_POOLED_BRICKS = 64;
+
+	/** About 2M positions. Bricks with depths are 10KB so memory stays under 6MB per grid. */
+	private static final int MAX_BRICKS = 512;
+
+	private final Int2ObjectOpenHashMap<Brick> bricks = new Int2ObjectOpenHashMap<>();
+	private final ObjectArrayList<Brick> activeBricks = new ObjectArrayList<>();
+	private final ObjectArrayList<Brick> freeBricks = new ObjectArrayList<>();
+
+	/** most recently used brick - lookups are strongly clustered. */
+	private Brick lastBrick = null;
+
+	private int xOrigin;
+	private int yOrigin;
+	private int zOrigin;
+
+	private static class Brick {
+		private final long[] types = new long[256];
+		private char[] depths;
+		private boolean hasDepths;
+		private int index;
+
+		private void clear() {
+			Arrays.fill(types, 0);
+
+			if (hasDepths) {
+				Arrays.fill(depths, (char) 0);
+				hasDepths = false;
+			}
+		}
+	}
+
+	@FunctionalInterface
+	public interface VisitConsumer {
+		void accept(long packedPos, int type, int depth);
+	}
+
+	/** Clears all visits and centers the grid on the given packed position. */
+	public void reset(long originPos) {
+		final ObjectArrayList<Brick> active = activeBricks;
+		final int limit = active.size();
+
+		for (int i = 0; i < limit; ++i) {
+			final Brick brick = active.get(i);
+
+			if (freeBricks.size() < MAX_POOLED_BRICKS) {
+				brick.clear();
+				freeBricks.add(brick);
+			}
+		}
+
+		active.clear();
+		bricks.clear();
+		lastBrick = null;
+		xOrigin = BlockPos.getX(originPos) - XZ_OFFSET;
+		yOrigin = BlockPos.getY(originPos) - Y_OFFSET;
+		zOrigin = BlockPos.getZ(originPos) - XZ_OFFSET;
+	}
+
+	/**
+	 * Drops all bricks, including pooled ones, so an idle grid holds almost no memory.
+	 * Call {@link #reset(long)} before using the grid again.
+	 */
+	public void release() {
+		activeBricks.clear();
+		activeBricks.trim();
+		freeBricks.clear();
+		freeBricks.trim();
+		bricks.clear();
+		bricks.trim();
+		lastBrick = null;
+	}
+
+	/** True when no more bricks can be allocated. */
+	public boolean isFull() {
+		return activeBricks.size() >= MAX_BRICKS;
+	}
+
+	/** Brick index or -1 if out of range. */
+	private static int brickIndex(int rx, int ry, int rz) {
+		if (((rx | rz) & ~(XZ_RANGE - 1)) != 0 || (ry & ~(Y_RANGE - 1)) != 0) {
+			return -1;
+		}
+
+		return (rx >> 4) | ((ry >> 4) << 9) | ((rz >> 4) << 17);
+	}
+
+	/** Allocated brick at the given index, or null. */
+	private Brick getBrick(int index) {
+		final Brick last = lastBrick;
+
+		if (last != null && last.index == index) {
+			return last;
+		}
+
+		final Brick result = bricks.get(index);
+
+		if (result != null) {
+			lastBrick = result;
+		}
+
+		return result;
+	}
+
+	private static int cellIndex(int rx, int ry, int rz) {
+		return (rx & 15) | ((ry & 15) << 4) | ((rz & 15) << 8);
+	}
+
+	private static int cellType(Brick brick, int cell) {
+		return (int) (brick.types[cell >> 4] >>> ((cell & 15) << 2)) & 0xF;
+	}
+
+	public boolean contains(long packedPos) {
+		final int rx = BlockPos.getX(packedPos) - xOrigin;
+		final int ry = BlockPos.getY(packedPos) - yOrigin;
+		final int rz = BlockPos.getZ(packedPos) - zOrigin;
+		final int index = brickIndex(rx, ry, rz);
+
+		if (index < 0) {
+			return true;
+		}
+
+		final Brick brick = getBrick(index);
+		return brick == null ? isFull() : cellType(brick, cellIndex(rx, ry, rz)) != 0;
+	}
+
+	/** Visit type or {@link #NOT_PRESENT}. */
+	public int getType(long packedPos) {
+		final int rx = BlockPos.getX(packedPos) - xOrigin;
+		final int ry = BlockPos.getY(packedPos) - yOrigin;
+		final int rz = BlockPos.getZ(packedPos) - zOrigin;
+		final int index = brickIndex(rx, ry, rz);
+		final Brick brick = index < 0 ? null : getBrick(index);
+		return brick == null ? NOT_PRESENT : cellType(brick, cellIndex(rx, ry, rz)) - 1;
+	}
+
+	public void put(long packedPos, int type) {
+		put(packedPos, type, 0);
+	}
+
+	/** Type must be 0-14 and depth 0-65535. Ignored if the position is out of range or the grid is full. */
+	public void put(long packedPos, int type, int depth) {
+		assert type >= 0 && type < 15;
+		assert depth >= 0 && depth <= Character.MAX_VALUE;
+
+		final int rx = BlockPos.getX(packedPos) - xOrigin;
+		final int ry = BlockPos.getY(packedPos) - yOrigin;
+		final int rz = BlockPos.getZ(packedPos) - zOrigin;
+		final int index = brickIndex(rx, ry, rz);
+
+		if (index < 0) {
+			return;
+		}
+
+		Brick brick = getBrick(index);
+
+		if (brick == null) {
+			if (isFull()) {
+				return;
+			}
+
+			brick = freeBricks.isEmpty() ? new Brick() : freeBricks.pop();
+			brick.index = index;
+			bricks.put(index, brick);
+			activeBricks.add(brick);
+			lastBrick = brick;
+		}
+
+		final int cell = cellIndex(rx, ry, rz);
+		final int shift = (cell & 15) << 2;
+		final long[] types = brick.types;
+		types[cell >> 4] = (types[cell >> 4] & ~(0xFL << shift)) | ((long) (type + 1) << shift);
+
+		if (depth != 0 || brick.hasDepths) {
+			if (brick.depths == null) {
+				brick.depths = new char[4096];
+			}
+
+			brick.depths[cell] = (char) depth;
+			brick.hasDepths = true;
+		}
+	}
+
+	public void remove(long packedPos) {
+		final int rx = BlockPos.getX(packedPos) - xOrigin;
+		final int ry = BlockPos.getY(packedPos) - yOrigin;
+		final int rz = BlockPos.getZ(packedPos) - zOrigin;
+		final int index = brickIndex(rx, ry, rz);
+		final Brick brick = index < 0 ? null : getBrick(index);
+
+		if (brick != null) {
+			final int cell = cellIndex(rx, ry, rz);
+			brick.types[cell >> 4] &= ~(0xFL << ((cell & 15) << 2));
+
+			if (brick.hasDepths) {
+				brick.depths[cell] = 0;
+			}
+		}
+	}
+
+	/** Visits every recorded position. Order is not defined. */
+	public void forEach(VisitConsumer consumer) {
+		final ObjectArrayList<Brick> active = activeBricks;
+		final int limit = active.size();
+
+		for (int i = 0; i < limit; ++i) {
+			final Brick brick = active.get(i);
+			final int index = brick.index;
+			final int bx = xOrigin + ((index & 511) << 4);
+			final int by = yOrigin + (((index >> 9) & 255) << 4);
+			final int bz = zOrigin + (((index >> 17) & 511) << 4);
+			final long[] types = brick.types;
+
+			for (int w = 0; w < 256; ++w) {
+				long word = types[w];
+
+				while (word != 0) {
+					final int nibble = Long.numberOfTrailingZeros(word) >> 2;
+					final int shift = nibble << 2;
+					final int cell = (w << 4) | nibble;
+					final int type = (int) (word >>> shift) & 0xF;
+					word &= ~(0xFL << shift);
+
+					final int depth = brick.hasDepths ? brick.depths[cell] : 0;
+					consumer.accept(BlockPos.asLong(bx + (cell & 15), by + ((cell >> 4) & 15), bz + (cell >> 8)), type - 1, depth);
+				}
+			}
+		}
+	}
+}
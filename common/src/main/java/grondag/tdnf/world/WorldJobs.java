@@ -20,91 +20,327 @@
 
 package grondag.tdnf.world;
 
+import java.util.Comparator;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongHeapPriorityQueue;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
-import it.unimi.dsi.fastutil.objects.ObjectArrayFIFOQueue;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.level.TicketType;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.level.ChunkPos;
 
 import grondag.tdnf.config.Configurator;
 
+/**
+ * Jobs for a single world. Waiting jobs are started in priority order.
+ * Priority is a deadline: the game time when the job was enqueued plus a
+ * delay that is zero for player-initiated jobs and grows with distance to
+ * the nearest player otherwise. Jobs therefore age into the front of the
+ * queue and none wait forever.
+ *
+ * <p>Waiting jobs live in reusable slots and the heap holds packed
+ * (deadline, slot) values.
+ *
+ * <p>Breaks that would start a duplicate search of the same tree are
+ * coalesced: a start directly beside a waiting job's start is added to that
+ * job, and a start already reached by a running forward search is taken
+ * over by that search.
+ */
 class WorldJobs {
-	private final ObjectArrayFIFOQueue<TreeJob> waitingJobs = new ObjectArrayFIFOQueue<>();
+	private static final int SLOT_BITS = 20;
+	private static final long SLOT_MASK = (1L << SLOT_BITS) - 1;
+
+	/** Delay in ticks for jobs without a player, before distance is added. */
+	private static final long NON_PLAYER_DELAY = 100;
+
+	/** Cap on distance-based delay in ticks - also used when the world has no players. */
+	private static final long MAX_DISTANCE_DELAY = 1024;
+
+	private final LongHeapPriorityQueue waitingJobs = new LongHeapPriorityQueue();
+	private final ObjectArrayList<TreeJob> waitingSlots = new ObjectArrayList<>();
+	private final IntArrayList freeSlots = new IntArrayList();
+
+	/** Waiting jobs by each of their start positions. */
+	private final Long2ObjectOpenHashMap<TreeJob> waitingByPos = new Long2ObjectOpenHashMap<>();
 	private final LongOpenHashSet queuedPositions = new LongOpenHashSet();
 	private final ObjectArrayList<TreeJob> runningJobs = new ObjectArrayList<>();
+
+	/** Jobs waiting for a chunk to load. They keep their place ahead of waiting jobs and count toward the job limit. */
+	private final ObjectArrayList<TreeJob> parkedJobs = new ObjectArrayList<>();
 	public final ProtectionTracker protectionTracker;
+	public final DoomIndex doomIndex = new DoomIndex();
+	public final SupportCache supportCache = new SupportCache();
+	public final TreeRegistry treeRegistry;
+
+	/** Backlog when the current server tick started - used by {@link Dispatcher} to divide time. */
+	int scheduledBacklog = 0;
+	private int nextJobIndex = 0;
+
+	/** Floor on time slices so that large job counts don't degrade to one operation per turn. */
+	private static final long MIN_QUANTUM_NANOS = 50_000L;
+
+	/**
+	 * Loads a chunk needed by a parked job without blocking the server thread.
+	 * Renewed every tick while the job waits, so the lifespan only matters if
+	 * the job goes away.
+	 */
+	private static final TicketType<ChunkPos> TREE_TICKET = TicketType.create("tdnf_tree", Comparator.comparingLong(ChunkPos::toLong), 20);
 
 	WorldJobs(ServerLevel level) {
 		protectionTracker = level.getDataStorage().computeIfAbsent(ProtectionTracker::load, ProtectionTracker::new, ProtectionTracker.FILE_ID);
+		treeRegistry = level.getDataStorage().computeIfAbsent(TreeRegistry::load, TreeRegistry::new, TreeRegistry.FILE_ID);
 	}
 
+	/**
+	 * Runs jobs until all have hit their break limits or the world's time
+	 * budget is exhausted. Time is shared with deficit round robin: each pass
+	 * credits every runnable job an equal quantum and the job runs until its
+	 * credit is spent. Overruns carry forward as debt, so a job with long
+	 * operations gets fewer turns instead of starving the others. Jobs that
+	 * run out of time resume at the same operation next tick.
+	 */
 	public void run(ServerLevel world) {
 		final ObjectArrayList<TreeJob> jobs = runningJobs;
-		final int jobLimit = Configurator.maxJobsPerWorld;
+		final int jobLimit = BreakRateController.maxJobsPerWorld();
+
+		if (!parkedJobs.isEmpty()) {
+			resumeParked(world);
+		}
 
-		while (jobs.size() < jobLimit && !waitingJobs.isEmpty()) {
-			jobs.add(waitingJobs.dequeue());
+		// parked jobs count toward the limit so that the chunks they keep loaded are bounded too
+		while (jobs.size() + parkedJobs.size() < jobLimit && !waitingJobs.isEmpty()) {
+			jobs.add(dequeueWaiting());
 		}
 
 		final int limit = jobs.size();
 
+		if (limit == 0) {
+			return;
+		}
+
 		for (int j = 0; j < limit; ++j) {
 			jobs.get(j).prepareForTick(world);
 		}
 
-		int i = 0;
-		boolean didRun = false;
+		final long quantum = Math.max(MIN_QUANTUM_NANOS, TickTimeLimiter.budgetNanos() / limit);
+
+		// rotate starting job so the same job isn't always first when time runs short
+		int i = nextJobIndex < limit ? nextJobIndex : 0;
+		int sinceLastRun = 0;
 
-		while (true) {
-			if (jobs.isEmpty()) { // || !TickTimeLimiter.canRun()) {
-				break;
+		while (!jobs.isEmpty() && sinceLastRun < jobs.size() && TickTimeLimiter.canRun()) {
+			if (i >= jobs.size()) {
+				i = 0;
 			}
 
 			final TreeJob job = jobs.get(i);
 
-			if (job.canRun()) {
-				didRun = true;
+			// skip jobs that have hit limits - idle jobs don't bank credit
+			if (!job.canRun()) {
+				++i;
+				++sinceLastRun;
+				continue;
+			}
+
+			job.deficitNanos = Math.min(quantum, job.deficitNanos + quantum);
+
+			while (job.deficitNanos > 0 && job.canRun() && TickTimeLimiter.canRun()) {
+				final long start = System.nanoTime();
 				job.tick(world);
+				job.deficitNanos -= System.nanoTime() - start;
+				sinceLastRun = 0;
 
 				if (job.isComplete()) {
-					queuedPositions.remove(job.startPos());
-					job.release();
-					jobs.remove(i);
-				} else {
-					++i;
+					break;
+				}
+			}
+
+			if (job.isComplete()) {
+				removeQueuedPositions(job);
+
+				final long support = job.cutter.verifiedSupport();
+
+				if (support != Long.MAX_VALUE) {
+					supportCache.record(world, job.startPos(), support);
 				}
+
+				if (Configurator.enableMetrics) {
+					JobMetrics.recordFinished(job.ticks(), job.cutter.queuePeak());
+				}
+
+				job.release();
+				jobs.remove(i);
+			} else if (job.isParked()) {
+				jobs.remove(i);
+				parkedJobs.add(job);
+				requestChunk(world, job);
 			} else {
-				// skip jobs that have hit limits
 				++i;
 			}
+		}
 
-			// exit if all jobs have hit limits
-			if (i >= jobs.size()) {
-				if (didRun) {
-					didRun = false;
-					i = 0;
-				} else {
-					break;
+		nextJobIndex = i;
+
+		assert queuedPositions.isEmpty() == (waitingJobs.isEmpty() && runningJobs.isEmpty() && parkedJobs.isEmpty());
+	}
+
+	/**
+	 * Returns parked jobs to the running list once their chunk is loaded. Jobs
+	 * that time out or are cancelled while parked also return, so that they
+	 * finish the normal way.
+	 */
+	private void resumeParked(ServerLevel world) {
+		final ObjectArrayList<TreeJob> parked = parkedJobs;
+
+		for (int i = parked.size() - 1; i >= 0; --i) {
+			final TreeJob job = parked.get(i);
+			final long chunk = job.cutter.parkedChunk();
+			job.tickParked();
+
+			if (world.getChunkSource().getChunkNow(ChunkPos.getX(chunk), ChunkPos.getZ(chunk)) != null
+					|| job.isTimedOut() || job.isCancelled(world)) {
+				job.cutter.unpark();
+				parked.remove(i);
+				runningJobs.add(job);
+			} else {
+				requestChunk(world, job);
+			}
+		}
+	}
+
+	private static void requestChunk(ServerLevel world, TreeJob job) {
+		final ChunkPos pos = new ChunkPos(job.cutter.parkedChunk());
+		world.getChunkSource().addRegionTicket(TREE_TICKET, pos, 0, pos);
+	}
+
+	private TreeJob dequeueWaiting() {
+		final int slot = (int) (waitingJobs.dequeueLong() & SLOT_MASK);
+		final TreeJob result = waitingSlots.get(slot);
+		waitingSlots.set(slot, null);
+		freeSlots.push(slot);
+
+		waitingByPos.remove(result.startPos());
+		final LongArrayList extraStarts = result.extraStarts();
+
+		for (int i = 0; i < extraStarts.size(); ++i) {
+			waitingByPos.remove(extraStarts.getLong(i));
+		}
+
+		return result;
+	}
+
+	private void removeQueuedPositions(TreeJob job) {
+		queuedPositions.remove(job.startPos());
+		final LongArrayList extraStarts = job.extraStarts();
+
+		for (int i = 0; i < extraStarts.size(); ++i) {
+			queuedPositions.remove(extraStarts.getLong(i));
+		}
+	}
+
+	/** True if the start position was merged into an existing job. */
+	private boolean tryCoalesce(long packedPos, ServerPlayer player) {
+		// same layer, directly adjacent to start of a waiting job - same trunk
+		for (final Direction face : Direction.Plane.HORIZONTAL) {
+			final TreeJob job = waitingByPos.get(BlockPos.offset(packedPos, face));
+
+			if (job != null && job.player() == player) {
+				job.extraStarts().add(packedPos);
+				waitingByPos.put(packedPos, job);
+				queuedPositions.add(packedPos);
+
+				if (Configurator.enableMetrics) {
+					JobMetrics.recordCoalesced();
+				}
+
+				return true;
+			}
+		}
+
+		final ObjectArrayList<TreeJob> jobs = runningJobs;
+		final int limit = jobs.size();
+
+		for (int i = 0; i < limit; ++i) {
+			if (jobs.get(i).tryCoalesce(packedPos, player)) {
+				if (Configurator.enableMetrics) {
+					JobMetrics.recordCoalesced();
 				}
+
+				return true;
 			}
 		}
 
-		assert queuedPositions.isEmpty() == (waitingJobs.isEmpty() && runningJobs.isEmpty());
+		return false;
+	}
+
+	private void enqueueWaiting(ServerLevel world, TreeJob job, ServerPlayer player) {
+		final int slot;
+
+		if (freeSlots.isEmpty()) {
+			slot = waitingSlots.size();
+			waitingSlots.add(job);
+		} else {
+			slot = freeSlots.popInt();
+			waitingSlots.set(slot, job);
+		}
+
+		assert slot <= SLOT_MASK;
+
+		final long deadline = world.getGameTime() + (player == null ? nonPlayerDelay(world, job.startPos()) : 0);
+		waitingJobs.enqueue((deadline << SLOT_BITS) | slot);
+	}
+
+	/** Delay in ticks for a job with no player - one tick per block to nearest player. */
+	private static long nonPlayerDelay(ServerLevel world, long packedPos) {
+		final double x = BlockPos.getX(packedPos) + 0.5;
+		final double y = BlockPos.getY(packedPos) + 0.5;
+		final double z = BlockPos.getZ(packedPos) + 0.5;
+		final Player nearest = world.getNearestPlayer(x, y, z, MAX_DISTANCE_DELAY, false);
+		final long distance = nearest == null ? MAX_DISTANCE_DELAY : (long) Math.sqrt(nearest.distanceToSqr(x, y, z));
+		return NON_PLAYER_DELAY + distance;
+	}
+
+	/** Count of jobs waiting, running or parked. */
+	public int backlog() {
+		return waitingJobs.size() + runningJobs.size() + parkedJobs.size();
 	}
 
 	// only add the first report - earlier reports are more reliable/valuable
 	// in particular, break block comes first and includes player
-	public void enqueueBreakAbove(long packedPosition, ServerPlayer player) {
+	public void enqueueBreakAbove(ServerLevel world, long packedPosition, ServerPlayer player) {
 		final long above = BlockPos.offset(packedPosition, Direction.UP);
 
-		if (queuedPositions.add(above)) {
+		if (!queuedPositions.contains(above)) {
 			//                System.out.println("Enqueing: " + BlockPos.fromLong(packedPosition).toString() + " player = " +
 			//                        (player == null ? "NULL" : player.toString()));
 			this.protectionTracker.unprotect(packedPosition);
-			waitingJobs.enqueue(TreeJob.claim(above, player, player == null ? null : player.getMainHandItem(), protectionTracker));
+
+			if (player == null && supportCache.isSupported(world, above)) {
+				if (Configurator.enableMetrics) {
+					JobMetrics.recordCached();
+				}
+
+				return;
+			}
+
+			if (!tryCoalesce(above, player)) {
+				queuedPositions.add(above);
+				final TreeJob job = TreeJob.claim(above, player, player == null ? null : player.getMainHandItem(), protectionTracker, doomIndex, treeRegistry);
+				waitingByPos.put(above, job);
+				enqueueWaiting(world, job, player);
+
+				if (Configurator.enableMetrics) {
+					JobMetrics.recordQueued();
+				}
+			}
 		}
 	}
 }
@@ -21,10 +21,13 @@
 package grondag.tdnf;
 
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
 import net.fabricmc.fabric.api.event.player.PlayerBlockBreakEvents;
 
 import grondag.tdnf.config.Configurator;
+import grondag.tdnf.world.BlockClassifier;
 import grondag.tdnf.world.Dispatcher;
 
 public class FabricInitializer implements ModInitializer {
@@ -35,5 +38,8 @@ public class FabricInitializer implements ModInitializer {
 		PlayerBlockBreakEvents.BEFORE.register(PlayerBreakHandler::beforeBreak);
 		PlayerBlockBreakEvents.AFTER.register(PlayerBreakHandler::onBreak);
 		PlayerBlockBreakEvents.CANCELED.register(PlayerBreakHandler::onCanceled);
+		ServerLifecycleEvents.SERVER_STARTING.register(server -> BlockClassifier.rebuild());
+		ServerLifecycleEvents.END_DATA_PACK_RELOAD.register((server, resourceManager, success) -> BlockClassifier.rebuild());
+		CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> TdnfCommands.register(dispatcher));
 	}
 }
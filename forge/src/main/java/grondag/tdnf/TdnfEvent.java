@@ -20,6 +20,8 @@
 
 package grondag.tdnf;
 
+import net.minecraftforge.event.RegisterCommandsEvent;
+import net.minecraftforge.event.TagsUpdatedEvent;
 import net.minecraftforge.event.TickEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.LogicalSide;
@@ -27,6 +29,7 @@ import net.minecraftforge.fml.common.Mod;
 
 import net.minecraft.server.level.ServerLevel;
 
+import grondag.tdnf.world.BlockClassifier;
 import grondag.tdnf.world.Dispatcher;
 
 @Mod.EventBusSubscriber(modid = TreesDoNotFloat.MODID, bus = Mod.EventBusSubscriber.Bus.FORGE)
@@ -39,4 +42,14 @@ public class TdnfEvent {
 			}
 		}
 	}
+
+	@SubscribeEvent
+	public static void registerCommands(RegisterCommandsEvent event) {
+		TdnfCommands.register(event.getDispatcher());
+	}
+
+	@SubscribeEvent
+	public static void tagsUpdated(TagsUpdatedEvent event) {
+		BlockClassifier.rebuild();
+	}
 }